@@ -1,24 +1,33 @@
 package com.onevizion.scmdb;
 
+import com.onevizion.scmdb.vo.CompileInvalidsMode;
+import com.onevizion.scmdb.vo.CompileScope;
 import com.onevizion.scmdb.vo.DbCnnCredentials;
 import com.onevizion.scmdb.vo.SchemaType;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import oracle.ucp.jdbc.PoolDataSource;
+import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.onevizion.scmdb.vo.SchemaType.*;
 import static java.util.Arrays.asList;
 
 public class AppArguments {
+    private static final int DEFAULT_OUTPUT_LIMIT_KB = 64;
+
     private File scriptsDirectory;
     private File ddlsDirectory;
+    private File cacheDirectory;
     private Map<SchemaType, DbCnnCredentials> credentials = new HashMap<>();
     private boolean genDdl;
     private boolean executeScripts;
@@ -26,16 +35,36 @@ public class AppArguments {
     private boolean all = false;
     private boolean omitChanged = false;
     private boolean ignoreErrors = false;
+    private boolean compressText = false;
+    private boolean reuseSessions = false;
+    private boolean parallelSchemas = false;
+    private boolean dryRun = false;
+    private boolean driftReport = false;
+    private boolean plan = false;
+    private boolean captureDdl = false;
+    private int parallel = 1;
+    private CompileInvalidsMode compileInvalidsMode = CompileInvalidsMode.SCRIPT;
+    private CompileScope compileScope = CompileScope.CHANGED;
+    private File logDirectory;
+    private int outputLimitBytes = DEFAULT_OUTPUT_LIMIT_KB * 1024;
+    private int scanThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int batchSize = 500;
+    private int compileThreads = 4;
+    private int ddlThreads = 4;
+    private File targetsFile;
+    private int targetThreads = 4;
+    private String targetName;
+    private String[] args;
 
     private final static String DDL_DIRECTORY_NAME = "ddl";
-
-    private AppArguments() {}
+    private final static String CACHE_DIRECTORY_NAME = ".scmdb";
 
     public AppArguments(String[] args) {
         parse(args);
     }
 
-    void parse(String[] args) {
+    private void parse(String[] args) {
+        this.args = args;
         OptionParser parser = new OptionParser();
         OptionSpec<String> ownerSchemaOption = parser.accepts("owner-schema").withRequiredArg().ofType(String.class);
         OptionSpec<String> userSchemaOption = parser.accepts("user-schema").withOptionalArg().ofType(String.class);
@@ -43,6 +72,18 @@ public class AppArguments {
         OptionSpec<String> pkgSchemaOption = parser.accepts("pkg-schema").withOptionalArg().ofType(String.class);
         OptionSpec<String> perfstatSchemaOption = parser.accepts("perfstat-schema").withOptionalArg().ofType(String.class);
         OptionSpec<File> scriptsDirectoryOption = parser.accepts("scripts-dir").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> scanThreadsOption = parser.accepts("scan-threads").withRequiredArg().ofType(Integer.class);
+        OptionSpec<File> cacheDirectoryOption = parser.accepts("cache-dir").withRequiredArg().ofType(File.class);
+        OptionSpec<File> logDirectoryOption = parser.accepts("log-dir").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> outputLimitOption = parser.accepts("output-limit").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> batchSizeOption = parser.accepts("batch-size").withRequiredArg().ofType(Integer.class);
+        OptionSpec<File> targetsOption = parser.accepts("targets").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> targetThreadsOption = parser.accepts("target-threads").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> parallelOption = parser.accepts("parallel").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> ddlThreadsOption = parser.accepts("ddl-threads").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> compileThreadsOption = parser.accepts("compile-threads").withRequiredArg().ofType(Integer.class);
+        OptionSpec<String> compileInvalidsOption = parser.accepts("compile-invalids").withRequiredArg().ofType(String.class);
+        OptionSpec<String> compileScopeOption = parser.accepts("compile-scope").withRequiredArg().ofType(String.class);
 
         OptionSpec execOption = parser.acceptsAll(asList("e", "exec"));
         OptionSpec genDdlOption = parser.acceptsAll(asList("d", "gen-ddl"));
@@ -50,24 +91,55 @@ public class AppArguments {
         OptionSpec noColorOption = parser.acceptsAll(asList("n", "no-color"));
         OptionSpec omitChangedOption = parser.acceptsAll(asList("o", "omit-changed"));
         OptionSpec ignoreErrorsOption = parser.acceptsAll(asList("i", "ignore-errors"));
+        OptionSpec compressTextOption = parser.accepts("compress-text");
+        OptionSpec reuseSessionsOption = parser.accepts("reuse-sessions");
+        OptionSpec parallelSchemasOption = parser.accepts("parallel-schemas");
+        OptionSpec dryRunOption = parser.accepts("dry-run");
+        OptionSpec driftReportOption = parser.accepts("drift-report");
+        OptionSpec planOption = parser.accepts("plan");
+        OptionSpec captureDdlOption = parser.accepts("capture-ddl");
 
         OptionSet options = parser.parse(args);
 
-        if(!options.has(ownerSchemaOption) || !options.has(scriptsDirectoryOption)){
-            throw new IllegalArgumentException("--owner-schema and --scripts-dir are required parameters.");
+        if((!options.has(ownerSchemaOption) && !options.has(targetsOption)) || !options.has(scriptsDirectoryOption)){
+            throw new IllegalArgumentException("--owner-schema (or --targets) and --scripts-dir are required parameters.");
+        }
+        if (options.has(ownerSchemaOption) && options.has(targetsOption)) {
+            throw new IllegalArgumentException("You can't specify both --owner-schema and --targets arguments. Choose one.");
         }
 
-        credentials.put(OWNER, DbCnnCredentials.create(options.valueOf(ownerSchemaOption)));
-        createCredentials(USER, options, userSchemaOption);
-        createCredentials(RPT, options, rptSchemaOption);
-        createCredentials(PKG, options, pkgSchemaOption);
-        createCredentials(PERFSTAT, options, perfstatSchemaOption);
+        if (options.has(targetsOption)) {
+            targetsFile = options.valueOf(targetsOption);
+            if (!targetsFile.isFile()) {
+                throw new IllegalArgumentException("Targets file [" + targetsFile.getAbsolutePath() + "] doesn't exist.");
+            }
+            if (options.has(genDdlOption)) {
+                throw new IllegalArgumentException("You can't specify both --gen-ddl and --targets arguments.");
+            }
+        } else {
+            credentials.put(OWNER, DbCnnCredentials.create(options.valueOf(ownerSchemaOption)));
+            createCredentials(USER, options, userSchemaOption);
+            createCredentials(RPT, options, rptSchemaOption);
+            createCredentials(PKG, options, pkgSchemaOption);
+            createCredentials(PERFSTAT, options, perfstatSchemaOption);
+        }
+        if (options.has(targetThreadsOption)) {
+            targetThreads = options.valueOf(targetThreadsOption);
+            if (targetThreads < 1) {
+                throw new IllegalArgumentException("--target-threads should be a positive number.");
+            }
+        }
 
         scriptsDirectory = options.valueOf(scriptsDirectoryOption);
         if (!scriptsDirectory.exists() || !scriptsDirectory.isDirectory()) {
             throw new IllegalArgumentException("Path [" + scriptsDirectory.getAbsolutePath() + "] doesn't exists or isn't a directory." +
                     " [--scripts-dir] should contains absolute path and points to scripts directory");
         }
+        if (options.has(cacheDirectoryOption)) {
+            cacheDirectory = options.valueOf(cacheDirectoryOption);
+        } else {
+            cacheDirectory = getDefaultCacheDirectory(scriptsDirectory);
+        }
         if(options.has(genDdlOption)){
             ddlsDirectory = new File(scriptsDirectory.getParentFile().getAbsolutePath() + File.separator +
                     DDL_DIRECTORY_NAME);
@@ -86,6 +158,106 @@ public class AppArguments {
         useColorLogging = !options.has(noColorOption);
         omitChanged = options.has(omitChangedOption);
         ignoreErrors = options.has(ignoreErrorsOption);
+        compressText = options.has(compressTextOption);
+        reuseSessions = options.has(reuseSessionsOption);
+        parallelSchemas = options.has(parallelSchemasOption);
+        dryRun = options.has(dryRunOption);
+        driftReport = options.has(driftReportOption);
+        plan = options.has(planOption);
+        captureDdl = options.has(captureDdlOption);
+        if (plan && (options.has(genDdlOption) || driftReport)) {
+            throw new IllegalArgumentException("You can't specify --plan with --gen-ddl or --drift-report arguments.");
+        }
+        if (driftReport && (options.has(execOption) || options.has(genDdlOption))) {
+            throw new IllegalArgumentException("You can't specify --drift-report with --exec or --gen-ddl arguments.");
+        }
+        if (options.has(parallelOption)) {
+            parallel = options.valueOf(parallelOption);
+            if (parallel < 1) {
+                throw new IllegalArgumentException("--parallel should be a positive number.");
+            }
+        }
+        if (parallelSchemas && parallel > 1) {
+            throw new IllegalArgumentException("You can't specify both --parallel-schemas and --parallel arguments. Choose one.");
+        }
+        if (options.has(compileInvalidsOption)) {
+            compileInvalidsMode = CompileInvalidsMode.getByName(options.valueOf(compileInvalidsOption));
+        }
+        if (options.has(compileScopeOption)) {
+            compileScope = CompileScope.getByName(options.valueOf(compileScopeOption));
+        }
+        if (options.has(ddlThreadsOption)) {
+            ddlThreads = options.valueOf(ddlThreadsOption);
+            if (ddlThreads < 1) {
+                throw new IllegalArgumentException("--ddl-threads should be a positive number.");
+            }
+        }
+        if (options.has(compileThreadsOption)) {
+            compileThreads = options.valueOf(compileThreadsOption);
+            if (compileThreads < 1) {
+                throw new IllegalArgumentException("--compile-threads should be a positive number.");
+            }
+        }
+        if (options.has(scanThreadsOption)) {
+            scanThreads = options.valueOf(scanThreadsOption);
+            if (scanThreads < 1) {
+                throw new IllegalArgumentException("--scan-threads should be a positive number.");
+            }
+        }
+        if (options.has(logDirectoryOption)) {
+            logDirectory = options.valueOf(logDirectoryOption);
+        }
+        if (options.has(outputLimitOption)) {
+            int outputLimitKb = options.valueOf(outputLimitOption);
+            if (outputLimitKb < 0) {
+                throw new IllegalArgumentException("--output-limit should not be a negative number.");
+            }
+            outputLimitBytes = outputLimitKb * 1024;
+        }
+        if (options.has(batchSizeOption)) {
+            batchSize = options.valueOf(batchSizeOption);
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("--batch-size should be a positive number.");
+            }
+        }
+    }
+
+    /**
+     * Creates arguments of one target of --targets: the same arguments with the target as --owner-schema
+     *
+     * @param ownerConnectionString owner schema connection string of the target
+     * @param targetName name of the target used in messages and as its EXECUTE_ME subdirectory
+     */
+    public AppArguments createForTarget(String ownerConnectionString, String targetName) {
+        List<String> targetArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--targets") || args[i].equals("--owner-schema")) {
+                i++;
+            } else if (!args[i].startsWith("--targets=") && !args[i].startsWith("--owner-schema=")) {
+                targetArgs.add(args[i]);
+            }
+        }
+        targetArgs.add("--owner-schema=" + ownerConnectionString);
+
+        AppArguments targetArguments = new AppArguments(targetArgs.toArray(new String[0]));
+        targetArguments.targetName = targetName;
+        return targetArguments;
+    }
+
+    /**
+     * Local state of a scripts directory is kept out of the VCS tree in the user home,
+     * in a subdirectory named by the scripts directory path
+     */
+    private File getDefaultCacheDirectory(File scriptsDirectory) {
+        File directory;
+        try {
+            directory = scriptsDirectory.getCanonicalFile();
+        } catch (IOException e) {
+            directory = scriptsDirectory.getAbsoluteFile();
+        }
+        String name = directory.getParentFile() == null ? directory.getName() : directory.getParentFile().getName();
+        return new File(System.getProperty("user.home"), CACHE_DIRECTORY_NAME + File.separator + name + "_"
+                + DigestUtils.sha1Hex(directory.getPath()).substring(0, 8));
     }
 
     public void fillDataSourceCredentials(PoolDataSource poolDataSource, SchemaType schemaType) {
@@ -125,6 +297,13 @@ public class AppArguments {
         return ddlsDirectory;
     }
 
+    /**
+     * @return directory of local files kept between runs like the script hash cache
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
     public DbCnnCredentials getDbCredentials(SchemaType schemaType) {
         return credentials.get(schemaType);
     }
@@ -153,6 +332,102 @@ public class AppArguments {
         return ignoreErrors;
     }
 
+    public boolean isCompressText() {
+        return compressText;
+    }
+
+    public boolean isReuseSessions() {
+        return reuseSessions;
+    }
+
+    public boolean isParallelSchemas() {
+        return parallelSchemas;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public boolean isDriftReport() {
+        return driftReport;
+    }
+
+    /**
+     * @return true if the run shouldn't change anything in DB
+     */
+    public boolean isReadOnly() {
+        return dryRun || driftReport || plan;
+    }
+
+    public boolean isPlan() {
+        return plan;
+    }
+
+    public boolean isCaptureDdl() {
+        return captureDdl;
+    }
+
+    public int getParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return true if scripts are executed concurrently by --parallel or --parallel-schemas option
+     */
+    public boolean isConcurrentExecution() {
+        return parallelSchemas || parallel > 1;
+    }
+
+    public CompileInvalidsMode getCompileInvalidsMode() {
+        return compileInvalidsMode;
+    }
+
+    public CompileScope getCompileScope() {
+        return compileScope;
+    }
+
+    public int getCompileThreads() {
+        return compileThreads;
+    }
+
+    public int getDdlThreads() {
+        return ddlThreads;
+    }
+
+    public File getLogDirectory() {
+        return logDirectory;
+    }
+
+    /**
+     * @return max size of script output tail saved in db_script.output
+     */
+    public int getOutputLimitBytes() {
+        return outputLimitBytes;
+    }
+
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public File getTargetsFile() {
+        return targetsFile;
+    }
+
+    public int getTargetThreads() {
+        return targetThreads;
+    }
+
+    /**
+     * @return name of the target when several targets are updated by one run, null otherwise
+     */
+    public String getTargetName() {
+        return targetName;
+    }
+
     public boolean isReadAllFilesContent() {
         return genDdl || !omitChanged;
     }
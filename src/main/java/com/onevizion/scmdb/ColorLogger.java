@@ -8,19 +8,22 @@ import ch.qos.logback.core.ConsoleAppender;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-
+/**
+ * Prints messages to the console in colors. Logback is set up once and shared by all instances.
+ * When a target of --targets is updated, its messages are prefixed with the target name,
+ * so output of concurrently updated targets can be told apart.
+ */
 public class ColorLogger {
-    private Logger logger = (Logger) LoggerFactory.getLogger("STDOUT");
-    private PatternLayoutEncoder encoder;
+    private static final Logger logger = (Logger) LoggerFactory.getLogger("STDOUT");
+    private static final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
 
     @Autowired
     private AppArguments appArguments;
 
-    public ColorLogger() {
+    static {
         LoggerContext loggerContext = logger.getLoggerContext();
         loggerContext.reset();
 
-        encoder = new PatternLayoutEncoder();
         encoder.setContext(loggerContext);
         encoder.setPattern("%msg%n");
         encoder.start();
@@ -34,8 +37,10 @@ public class ColorLogger {
     }
 
     public void info(String msg, Color color, Object... argArray) {
-        setColor(color);
-        logger.info(msg, argArray);
+        synchronized (encoder) {
+            setColor(color);
+            logger.info(addTargetName(msg), argArray);
+        }
     }
 
     public void info(String msg, Object... argArray) {
@@ -43,13 +48,17 @@ public class ColorLogger {
     }
 
     public void warn(String msg, Color color, Object... argArray) {
-        setColor(color);
-        logger.warn(msg, argArray);
+        synchronized (encoder) {
+            setColor(color);
+            logger.warn(addTargetName(msg), argArray);
+        }
     }
 
     public void error(String msg, Object... argArray) {
-        setColor(Color.RED);
-        logger.error(msg, argArray);
+        synchronized (encoder) {
+            setColor(Color.RED);
+            logger.error(addTargetName(msg), argArray);
+        }
     }
 
     private void setColor(Color color) {
@@ -61,8 +70,25 @@ public class ColorLogger {
     }
 
     public void debug(String msg, Object... argArray) {
-        setColor(Color.WHITE);
-        logger.debug(msg, argArray);
+        synchronized (encoder) {
+            setColor(Color.WHITE);
+            logger.debug(addTargetName(msg), argArray);
+        }
+    }
+
+    /**
+     * Puts "[target] " after leading empty lines of the message
+     */
+    private String addTargetName(String msg) {
+        String targetName = appArguments.getTargetName();
+        if (targetName == null) {
+            return msg;
+        }
+        int start = 0;
+        while (start < msg.length() && msg.charAt(start) == '\n') {
+            start++;
+        }
+        return msg.substring(0, start) + "[" + targetName + "] " + msg.substring(start);
     }
 
     public enum Color {
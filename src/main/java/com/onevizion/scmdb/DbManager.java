@@ -1,5 +1,6 @@
 package com.onevizion.scmdb;
 
+import com.onevizion.scmdb.dao.DdlCaptureDao;
 import com.onevizion.scmdb.exception.ScriptExecException;
 import com.onevizion.scmdb.facade.DbScriptFacade;
 import com.onevizion.scmdb.vo.*;
@@ -10,16 +11,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static com.onevizion.scmdb.ColorLogger.Color.CYAN;
 import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
-import static com.onevizion.scmdb.Scmdb.EXIT_CODE_SUCCESS;
 import static com.onevizion.scmdb.vo.SchemaType.OWNER;
 import static com.onevizion.scmdb.vo.ScriptType.COMMIT;
 import static com.onevizion.scmdb.vo.ScriptType.ROLLBACK;
+import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationHMS;
 
 public class DbManager {
     private static final String SCRIPT_EXECUTION_ERROR_MESSAGE = "Fix and execute manually script [{0}] and then run SCMDB again to execute other scripts.";
@@ -28,6 +33,7 @@ public class DbManager {
     private static final String SCRIPTS_TO_EXEC_MSG = "\nScripts to be executed in [{}]:";
     private static final String ROLLBACKS_TO_SKIP_MSG = "\nRollbacks skipped in [{}]:";
     private static final String SCRIPT_NUMBERING_IS_MORE_THAN_TWO_DIGITS_REGEX = "^\\d{3,}_.*";
+    private static final int STARTUP_THREADS = 3;
 
     @Autowired
     private DbScriptFacade scriptsFacade;
@@ -35,6 +41,15 @@ public class DbManager {
     @Autowired
     private DdlGenerator ddlGenerator;
 
+    @Autowired
+    private DbObjectsFinder dbObjectsFinder;
+
+    @Autowired
+    private ScriptWavesPlanner scriptWavesPlanner;
+
+    @Autowired
+    private DdlCaptureDao ddlCaptureDao;
+
     @Autowired
     private AppArguments appArguments;
 
@@ -46,21 +61,91 @@ public class DbManager {
 
     public void updateDb() {
         logger.info("SCMDB {}", getClass().getPackage().getImplementationVersion());
+        if (appArguments.isPlan()) {
+            printPlan();
+            return;
+        }
+        if (appArguments.isDryRun()) {
+            printExecutionPlan();
+            return;
+        }
 
-        scriptsFacade.checkDbConnection();
+        boolean scriptTableExist = loadDirAndDbState(true);
+        installDdlCapture();
 
-        if (!scriptsFacade.isScriptTableExist()) {
+        if (!scriptTableExist) {
             scriptExecutor.createDbScriptTable();
             scriptsFacade.createAllFromDirectory();
+            scriptsFacade.saveScriptsTree();
             logger.info(FIRST_RUN_MESSAGE);
+        } else if (scriptsFacade.isDbUpToDate()) {
+            scriptsFacade.cleanExecDir();
+            logger.info(NO_SCRIPTS_TO_EXEC_MSG, appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot());
         } else if (scriptsFacade.isFirstRun()) {
+            scriptsFacade.invalidateScriptsTree();
             scriptsFacade.createAllFromDirectory();
+            scriptsFacade.saveScriptsTree();
             logger.info(FIRST_RUN_MESSAGE);
         } else {
-            scriptsFacade.cleanExecDir();
-            checkUpdatedScripts();
-            checkDeletedScripts();
-            executeNewScripts();
+            try {
+                scriptsFacade.invalidateScriptsTree();
+                scriptsFacade.cleanExecDir();
+                checkUpdatedScripts();
+                if (checkDeletedScripts()) {
+                    executeNewScripts();
+                    scriptsFacade.saveScriptsTree();
+                }
+            } finally {
+                scriptExecutor.compileInvalids();
+                scriptExecutor.closeSessions();
+                scriptsFacade.saveRuntimeHistory();
+            }
+        }
+    }
+
+    /**
+     * Reads difference between scripts directory and db_script, nothing is changed
+     */
+    public ScriptsDrift readDrift() {
+        if (!loadDirAndDbState(false)) {
+            return ScriptsDrift.notInitialized();
+        }
+        if (scriptsFacade.isDbUpToDate()) {
+            return ScriptsDrift.upToDate();
+        }
+        return scriptsFacade.getDrift();
+    }
+
+    /**
+     * Scans scripts directory, reads DB state and opens connections to additional schemas concurrently.
+     *
+     * @param warmUpConnections open connections to additional schemas which are used to execute scripts
+     * @return true if db_script table exists
+     */
+    private boolean loadDirAndDbState(boolean warmUpConnections) {
+        ExecutorService startupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS);
+        try {
+            CompletableFuture<Void> dirScan = CompletableFuture.runAsync(scriptsFacade::init, startupExecutor);
+            CompletableFuture<Boolean> dbState = CompletableFuture.supplyAsync(scriptsFacade::loadDbState, startupExecutor);
+            if (warmUpConnections) {
+                CompletableFuture.runAsync(scriptExecutor::warmUpConnections, startupExecutor);
+            }
+
+            join(dirScan);
+            return join(dbState);
+        } finally {
+            startupExecutor.shutdown();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
 
@@ -79,15 +164,19 @@ public class DbManager {
         if (appArguments.isExecuteScripts()) {
             logger.info(SCRIPTS_TO_EXEC_MSG, appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot());
             newCommitScripts.forEach(script -> logger.info(script.getName()));
-            newCommitScripts.forEach(script -> {
-                int exitCode = scriptExecutor.execute(script);
-                script.setStatus(ScriptStatus.getByScriptExitCode(exitCode));
-                scriptsFacade.create(script);
-
-                if (script.getStatus() != ScriptStatus.EXECUTED && !appArguments.isIgnoreErrors()) {
-                    throw new ScriptExecException(MessageFormat.format(SCRIPT_EXECUTION_ERROR_MESSAGE, script.getName()));
-                }
-            });
+            ExecutionProgress progress = new ExecutionProgress(newCommitScripts, scriptsFacade::getPredictedRuntime,
+                                                               logger);
+            if (appArguments.isParallelSchemas()) {
+                executeScriptsBySchemas(newCommitScripts, progress);
+            } else if (appArguments.getParallel() > 1) {
+                executeScriptsInWaves(newCommitScripts, progress);
+            } else {
+                newCommitScripts.forEach(script -> {
+                    if (!executeScript(script, progress)) {
+                        throw new ScriptExecException(MessageFormat.format(SCRIPT_EXECUTION_ERROR_MESSAGE, script.getName()));
+                    }
+                });
+            }
         } else {
             logger.info("You should execute following script files to update your database:");
             scriptsFacade.copyScriptsToExecDir(newCommitScripts);
@@ -96,7 +185,156 @@ public class DbManager {
         }
     }
 
-    private void checkDeletedScripts() {
+    /**
+     * @return false if script failed and execution should be stopped
+     */
+    private boolean executeScript(SqlScript script, ExecutionProgress progress) {
+        int exitCode = scriptExecutor.execute(script);
+        script.setStatus(ScriptStatus.getByScriptExitCode(exitCode));
+        scriptsFacade.create(script);
+        progress.scriptFinished(script);
+
+        return script.getStatus() == ScriptStatus.EXECUTED || appArguments.isIgnoreErrors();
+    }
+
+    /**
+     * Executes scripts of each schema in their own thread and session, so scripts of different schemas run concurrently.
+     * Scripts of a schema are executed in the given order. Scripts of other schemas may depend on owner objects,
+     * so they wait for all previous owner scripts. Owner scripts may depend on grants, synonyms and packages
+     * of other schemas, so they wait for all previous scripts. After a failure no more scripts are started,
+     * not started scripts are executed on the next run.
+     */
+    private void executeScriptsBySchemas(List<SqlScript> scripts, ExecutionProgress progress) {
+        Map<SchemaType, ExecutorService> schemaExecutors = new EnumMap<>(SchemaType.class);
+        Map<SchemaType, CompletableFuture<Void>> lastSchemaScripts = new EnumMap<>(SchemaType.class);
+        CompletableFuture<Void> lastOwnerScript = CompletableFuture.completedFuture(null);
+        ConcurrentExecution execution = new ConcurrentExecution(progress);
+
+        try {
+            for (SqlScript script : scripts) {
+                SchemaType schemaType = script.getSchemaType();
+                ExecutorService schemaExecutor = schemaExecutors.computeIfAbsent(schemaType,
+                                                                                 k -> Executors.newSingleThreadExecutor());
+                CompletableFuture<Void> prevScripts = lastSchemaScripts.getOrDefault(schemaType,
+                                                                                     CompletableFuture.completedFuture(null));
+                if (schemaType == OWNER) {
+                    prevScripts = CompletableFuture.allOf(lastSchemaScripts.values().toArray(new CompletableFuture<?>[0]));
+                } else {
+                    prevScripts = CompletableFuture.allOf(prevScripts, lastOwnerScript);
+                }
+
+                CompletableFuture<Void> scriptExecution = prevScripts.thenRunAsync(() -> execution.execute(script),
+                                                                                    schemaExecutor);
+
+                lastSchemaScripts.put(schemaType, scriptExecution);
+                if (schemaType == OWNER) {
+                    lastOwnerScript = scriptExecution;
+                }
+            }
+            CompletableFuture.allOf(lastSchemaScripts.values().toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            schemaExecutors.values().forEach(ExecutorService::shutdown);
+        }
+        execution.checkFailures(scripts);
+    }
+
+    /**
+     * Executes waves of independent scripts one after another, scripts of a wave concurrently
+     * by up to --parallel threads. See {@link ScriptWavesPlanner}
+     */
+    private void executeScriptsInWaves(List<SqlScript> scripts, ExecutionProgress progress) {
+        List<List<SqlScript>> waves = scriptWavesPlanner.plan(scripts);
+        ExecutorService executor = Executors.newFixedThreadPool(appArguments.getParallel());
+        ConcurrentExecution execution = new ConcurrentExecution(progress);
+        try {
+            for (int i = 0; i < waves.size() && !execution.isFailed(); i++) {
+                List<SqlScript> wave = waves.get(i);
+                logger.info("\nWave {} of {}: {} scripts", GREEN, i + 1, waves.size(), wave.size());
+                CompletableFuture.allOf(wave.stream()
+                                            .map(script -> CompletableFuture.runAsync(() -> execution.execute(script),
+                                                                                      executor))
+                                            .toArray(CompletableFuture<?>[]::new))
+                                 .join();
+                if (appArguments.getCompileInvalidsMode() == CompileInvalidsMode.SCRIPT) {
+                    // not compiled after each script while other scripts of the wave change objects
+                    scriptExecutor.compileInvalids();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        execution.checkFailures(scripts);
+    }
+
+    /**
+     * Prints waves in which new scripts would be executed with --parallel option, nothing is executed
+     */
+    private void printExecutionPlan() {
+        boolean scriptTableExist = loadDirAndDbState(false);
+        if (!scriptTableExist || scriptsFacade.isFirstRun()) {
+            logger.info("Scripts won't be executed on the first run, all of them will be marked as executed.");
+            return;
+        }
+
+        List<SqlScript> newCommitScripts = sortScriptsInExecutionOrder(scriptsFacade.getNewScripts(), COMMIT);
+        if (newCommitScripts.isEmpty()) {
+            logger.info(NO_SCRIPTS_TO_EXEC_MSG, appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot());
+            return;
+        }
+
+        List<List<SqlScript>> waves = scriptWavesPlanner.plan(newCommitScripts);
+        if (appArguments.getParallel() > 1) {
+            logger.info("\nScripts to be executed in [{}] in {} waves, up to {} scripts at once:",
+                        appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot(), waves.size(),
+                        appArguments.getParallel());
+        } else {
+            logger.info("\nScripts to be executed in [{}] one by one, with --parallel they would be executed in {} waves:",
+                        appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot(), waves.size());
+        }
+        for (int i = 0; i < waves.size(); i++) {
+            logger.info("Wave {}:", GREEN, i + 1);
+            waves.get(i).forEach(script -> logger.info("  " + script.getName()));
+        }
+    }
+
+    /**
+     * Prints new scripts with runtimes predicted by their executions in any DB, nothing is executed
+     */
+    private void printPlan() {
+        boolean scriptTableExist = loadDirAndDbState(false);
+        if (!scriptTableExist || scriptsFacade.isFirstRun()) {
+            logger.info("Scripts won't be executed on the first run, all of them will be marked as executed.");
+            return;
+        }
+
+        List<SqlScript> newCommitScripts = sortScriptsInExecutionOrder(scriptsFacade.getNewScripts(), COMMIT);
+        if (newCommitScripts.isEmpty()) {
+            logger.info(NO_SCRIPTS_TO_EXEC_MSG, appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot());
+            return;
+        }
+
+        logger.info(SCRIPTS_TO_EXEC_MSG, appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot());
+        long predictedMillis = 0;
+        int unknownCount = 0;
+        for (SqlScript script : newCommitScripts) {
+            Long scriptMillis = scriptsFacade.getPredictedRuntime(script);
+            if (scriptMillis == null) {
+                unknownCount++;
+                logger.info("  {}  predicted runtime: unknown", script.getName());
+            } else {
+                predictedMillis += scriptMillis;
+                logger.info("  {}  predicted runtime: {}", script.getName(), formatDurationHMS(scriptMillis));
+            }
+        }
+        logger.info("Predicted runtime of {} scripts: {}{}", GREEN, newCommitScripts.size(),
+                    formatDurationHMS(predictedMillis),
+                    unknownCount == 0 ? "" : " + " + unknownCount + " scripts without runtime history");
+    }
+
+    /**
+     * @return false if rollbacks should be executed manually before new scripts
+     */
+    private boolean checkDeletedScripts() {
         Map<String, SqlScript> deletedScripts = scriptsFacade.getDeletedScriptsMap();
         List<SqlScript> rollbacksToExec = deletedScripts.values()
                                                         .stream()
@@ -105,7 +343,7 @@ public class DbManager {
         rollbacksToExec = sortScriptsInExecutionOrder(rollbacksToExec, ROLLBACK);
         if (rollbacksToExec.isEmpty()) {
             scriptsFacade.deleteAll(deletedScripts.values());
-            return;
+            return true;
         }
 
         if (appArguments.isOmitChanged()) {
@@ -114,11 +352,15 @@ public class DbManager {
             logger.info("\n");
 
             scriptsFacade.deleteAll(deletedScripts.values());
-            return;
+            return true;
         }
 
+        scriptsFacade.loadTexts(rollbacksToExec);
         boolean executeRollbacks = false;
-        if (appArguments.isExecuteScripts()) {
+        if (appArguments.isExecuteScripts() && appArguments.getTargetName() != null) {
+            // several targets are updated concurrently, nobody can answer
+            logger.info("Rollbacks aren't executed automatically when several targets are updated.");
+        } else if (appArguments.isExecuteScripts()) {
             logger.info("Do you really want to execute {} rollbacks? \n", GREEN, rollbacksToExec.size());
             rollbacksToExec.forEach(r -> logger.info(r.getName(), GREEN));
             logger.info("\nType [no] and rollbacks will be copied to EXECUTE_ME directory and marked as executed. " +
@@ -129,13 +371,13 @@ public class DbManager {
 
         if (executeRollbacks) {
             executeRollbacks(deletedScripts, rollbacksToExec);
+            return true;
         } else {
             logger.info("At first you should execute following rollbacks to revert changes of deleted scripts:");
             scriptsFacade.copyRollbacksToExecDir(rollbacksToExec);
             rollbacksToExec.forEach(script -> logger.info(script.getName(), GREEN));
             scriptsFacade.deleteAll(deletedScripts.values());
-
-            System.exit(EXIT_CODE_SUCCESS);
+            return false;
         }
     }
 
@@ -186,10 +428,25 @@ public class DbManager {
         }
     }
 
+    /**
+     * Installs trigger which logs DDL changes of the owner schema when --capture-ddl option is used
+     */
+    private void installDdlCapture() {
+        if (appArguments.isCaptureDdl() && !ddlCaptureDao.isInstalled()) {
+            scriptExecutor.installDdlCapture();
+            logger.info("DDL capture trigger was installed, DDL changes are logged into db_ddl_event table.");
+        }
+    }
+
     public void generateDdlForNewOrChangedScripts() {
+        if (appArguments.isCaptureDdl() && ddlCaptureDao.isInstalled()) {
+            generateDdlForCapturedChanges();
+            return;
+        }
         logger.info("Extracting DDL for new and updated scripts");
 
-        scriptsFacade.checkDbConnection();
+        loadDirAndDbState(false);
+        installDdlCapture();
 
         List<SqlScript> scripts = scriptsFacade.getNewScripts();
         scripts.addAll(scriptsFacade.getUpdatedScripts());
@@ -199,51 +456,22 @@ public class DbManager {
                                                  .filter(script -> script.getSchemaType() == OWNER)
                                                  .collect(Collectors.toList());
 
-        Set<DbObject> changedDbObjects = findChangedDbObjects(scriptsToGenDdl);
-        ddlGenerator.executeSettingTransformParams();
+        Set<DbObject> changedDbObjects = dbObjectsFinder.findChangedDbObjects(scriptsToGenDdl);
         ddlGenerator.generateDdls(changedDbObjects, false);
     }
 
-    private Set<DbObject> findChangedDbObjects(List<SqlScript> scripts) {
-        Set<DbObject> updatedDbObjects;
-
-        updatedDbObjects = scripts.stream()
-                                  .map(script -> removeSpecialFromScriptText(script.getText()))
-                                  .flatMap(scriptText -> findChangedDbObjectsInScriptText(scriptText).stream())
-                                  .collect(Collectors.toSet());
-        return updatedDbObjects;
-    }
-
-    private List<DbObject> findChangedDbObjectsInScriptText(String scriptText) {
-        List<DbObject> dbObjects = new ArrayList<>();
-        Matcher matcher;
-        for (DbObjectType dbObjectType : DbObjectType.values()) {
-            for (String keyword : dbObjectType.getChangeKeywords()) {
-
-                String keywordRegexp = keyword + "\\s+\\w+";
-                matcher = Pattern.compile(keywordRegexp).matcher(scriptText);
-                if (!matcher.find()) {
-                    continue;
-                }
-                scriptText = scriptText.replaceAll(keywordRegexp, "");
-                matcher.reset();
-                while (matcher.find()) {
-                    String objectName = matcher.group().replaceFirst(keyword + "\\s", "");
-                    dbObjects.add(new DbObject(objectName, dbObjectType));
-                }
-            }
+    /**
+     * Generates DDL of objects logged by the DDL capture trigger, consumed log entries are deleted
+     */
+    private void generateDdlForCapturedChanges() {
+        logger.info("Extracting DDL for objects changed since the previous generation");
+        Long maxEventId = ddlCaptureDao.readMaxEventId();
+        if (maxEventId == null) {
+            logger.info("No DDL changes were captured.");
+            return;
         }
-
-        return dbObjects;
-    }
-
-    private String removeSpecialFromScriptText(String scriptText) {
-        scriptText = scriptText.replaceAll("--.*\r*\n", "");
-        scriptText = scriptText.replaceAll("/\\*([\\s\\S]*?)\\*/", "");
-        scriptText = scriptText.replaceAll("\n+", " ");
-        scriptText = scriptText.replaceAll("\\s\\s+", " ");
-        scriptText = scriptText.replaceAll("\"", "");
-        return scriptText.toLowerCase();
+        ddlGenerator.generateDdls(ddlCaptureDao.readChangedObjects(maxEventId), false);
+        ddlCaptureDao.deleteEvents(maxEventId);
     }
 
     public void generateDdlForAllObjects() {
@@ -251,7 +479,6 @@ public class DbManager {
 
         scriptsFacade.checkDbConnection();
 
-        ddlGenerator.executeSettingTransformParams();
         ddlGenerator.generateDllsForAllDbObjects();
     }
 
@@ -300,4 +527,51 @@ public class DbManager {
             return commonScripts;
         }
     }
+
+    /**
+     * Failure state of scripts executed concurrently. After the first failure no more scripts are started,
+     * not started scripts are executed on the next run.
+     */
+    private class ConcurrentExecution {
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private final ExecutionProgress progress;
+
+        ConcurrentExecution(ExecutionProgress progress) {
+            this.progress = progress;
+        }
+
+        void execute(SqlScript script) {
+            if (failed.get()) {
+                return;
+            }
+            try {
+                if (!executeScript(script, progress)) {
+                    failed.set(true);
+                }
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, e);
+                failed.set(true);
+            }
+        }
+
+        boolean isFailed() {
+            return failed.get();
+        }
+
+        void checkFailures(List<SqlScript> scripts) {
+            if (error.get() != null) {
+                throw error.get();
+            }
+            if (failed.get()) {
+                scripts.stream()
+                       .filter(script -> script.getStatus() != null && script.getStatus() != ScriptStatus.EXECUTED)
+                       .findFirst()
+                       .ifPresent(script -> {
+                           throw new ScriptExecException(
+                                   MessageFormat.format(SCRIPT_EXECUTION_ERROR_MESSAGE, script.getName()));
+                       });
+            }
+        }
+    }
 }
@@ -0,0 +1,335 @@
+package com.onevizion.scmdb;
+
+import com.onevizion.scmdb.vo.DbObject;
+import com.onevizion.scmdb.vo.DbObjectType;
+import com.onevizion.scmdb.vo.SqlScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Finds DB objects changed or referenced by scripts in their text.
+ * Text is split into tokens by {@link SqlTokenizer}, then objects are found in one pass over the tokens.
+ */
+@Component
+public class DbObjectsFinder {
+    private static final Map<List<String>, DbObjectType> CHANGE_PHRASES = new HashMap<>();
+    /**
+     * Changes of objects which have no {@link DbObjectType}, their DDL isn't generated but their names are known
+     */
+    private static final Set<List<String>> UNTYPED_CHANGE_PHRASES = new HashSet<>();
+    private static final List<String> UNTYPED_CHANGE_KEYWORDS = asList("create function", "replace function",
+            "alter function", "drop function", "create procedure", "replace procedure", "alter procedure",
+            "drop procedure", "create synonym", "replace synonym", "drop synonym", "create public synonym",
+            "replace public synonym", "drop public synonym", "alter package", "alter view", "alter index",
+            "alter sequence");
+    private static final int MAX_CHANGE_PHRASE_LENGTH;
+    private static final List<String> COLUMN_COMMENT_PHRASE = asList("comment", "on", "column");
+    /**
+     * Tokens after which a new statement starts
+     */
+    private static final Set<String> STATEMENT_STARTS = new HashSet<>(asList(";", "/", "begin", "then", "else", "loop",
+            "immediate"));
+    /**
+     * Statements which may follow "execute immediate", anything else is SQL built at runtime
+     */
+    private static final Set<String> STATEMENT_KEYWORDS = new HashSet<>(asList("create", "alter", "drop", "rename",
+            "grant", "revoke", "truncate", "comment", "insert", "update", "delete", "merge", "select", "with", "begin",
+            "declare", "call", "lock", "analyze", "set", "commit", "rollback", "savepoint"));
+    private static final Set<String> EDITIONING_KEYWORDS = new HashSet<>(asList("editionable", "noneditionable"));
+    private static final Set<String> DYNAMIC_SQL_NAMES = new HashSet<>(asList("dbms_sql", "exec_ddl_statement"));
+    private static final Set<String> GRANT_ENDS = new HashSet<>(asList("to", "from", ";", "/"));
+    private static final Set<String> REFERENCE_KEYWORDS = new HashSet<>(asList("from", "join", "update", "delete",
+            "references", "on", "using", "exec", "execute", "call"));
+    private static final Set<String> INTO_REFERENCE_KEYWORDS = new HashSet<>(asList("insert", "merge"));
+    private static final Set<String> TABLE_REFERENCE_KEYWORDS = new HashSet<>(asList("truncate", "lock"));
+    private static final Set<String> MULTI_TABLE_INSERT_KEYWORDS = new HashSet<>(asList("all", "first"));
+    private static final Set<String> SEQUENCE_PSEUDOCOLUMNS = new HashSet<>(asList("nextval", "currval"));
+    private static final Set<String> NOT_OBJECT_NAMES = new HashSet<>(asList("dual", "select", "table", "delete",
+            "insert", "update", "set", "values", "each", "row", "commit", "null", "immediate", "or", "and", "of",
+            "nowait", "cascade", "from", "on"));
+    /**
+     * SQL functions, data types, keywords and PL/SQL statements which are followed by "(" or ";" like
+     * calls of functions and procedures
+     */
+    private static final Set<String> NOT_CALLED_NAMES = new HashSet<>(asList("in", "exists", "values", "and", "or",
+            "not", "when", "if", "elsif", "while", "where", "as", "is", "select", "over", "within", "key", "unique",
+            "check", "default", "return", "returning", "by", "then", "else", "case", "table", "than", "lob", "storage",
+            "partition", "subpartition", "count", "sum", "min", "max", "avg", "nvl", "nvl2", "decode", "coalesce",
+            "nullif", "greatest", "least", "to_char", "to_date", "to_number", "to_timestamp", "to_clob", "trunc",
+            "round", "substr", "instr", "length", "lower", "upper", "trim", "ltrim", "rtrim", "lpad", "rpad",
+            "replace", "translate", "concat", "chr", "ascii", "abs", "mod", "floor", "ceil", "power", "sqrt", "sign",
+            "cast", "extract", "listagg", "row_number", "rank", "dense_rank", "lag", "lead", "regexp_like",
+            "regexp_replace", "regexp_substr", "regexp_instr", "regexp_count", "sys_context", "userenv",
+            "add_months", "months_between", "last_day", "numtodsinterval", "numtoyminterval", "xmltype", "xmlagg",
+            "xmlelement", "json_value", "json_query", "json_table", "empty_clob", "empty_blob",
+            "raise_application_error", "exception_init", "restrict_references", "varchar2", "varchar", "nvarchar2",
+            "char", "nchar", "number", "integer", "float", "raw", "timestamp", "interval", "commit", "rollback",
+            "null", "end", "exit", "continue", "raise", "loop", "begin"));
+
+    static {
+        for (DbObjectType dbObjectType : DbObjectType.values()) {
+            for (String keyword : dbObjectType.getChangeKeywords()) {
+                CHANGE_PHRASES.put(toPhrase(keyword), dbObjectType);
+            }
+        }
+        UNTYPED_CHANGE_KEYWORDS.forEach(keyword -> UNTYPED_CHANGE_PHRASES.add(toPhrase(keyword)));
+        MAX_CHANGE_PHRASE_LENGTH = Math.max(CHANGE_PHRASES.keySet().stream().mapToInt(List::size).max().orElse(0),
+                                            UNTYPED_CHANGE_PHRASES.stream().mapToInt(List::size).max().orElse(0));
+    }
+
+    public Set<DbObject> findChangedDbObjects(Collection<SqlScript> scripts) {
+        return scripts.parallelStream()
+                      .flatMap(script -> findDbObjects(script.getText(), false).changedObjects.stream())
+                      .collect(Collectors.toSet());
+    }
+
+    /**
+     * Returns names of objects changed by the script, including objects without {@link DbObjectType}
+     * like functions, procedures, synonyms and objects granted to other schemas.
+     *
+     * @return names of changed objects or null if the script has DDL which objects can't be found:
+     * SQL built at runtime, system privilege grants or DDL of other object types
+     */
+    public Set<String> findChangedObjectNames(SqlScript script) {
+        ScriptObjects scriptObjects = findDbObjects(script.getText(), false);
+        return scriptObjects.unknownChanges ? null : scriptObjects.changedNames;
+    }
+
+    /**
+     * Returns names of objects which are changed or referenced by the script.
+     * Scripts without common object names don't depend on each other.
+     * Names are found by keywords and calls, so the result may contain extra names.
+     *
+     * @return names of objects or empty set if the script has DDL which objects can't be found
+     * (see {@link #findChangedObjectNames(SqlScript)}), such script may depend on any other script
+     */
+    public Set<String> findDbObjectNames(SqlScript script) {
+        ScriptObjects scriptObjects = findDbObjects(script.getText(), true);
+        if (scriptObjects.unknownChanges) {
+            return new HashSet<>();
+        }
+        Set<String> objectNames = scriptObjects.referencedNames;
+        objectNames.addAll(scriptObjects.changedNames);
+        objectNames.removeAll(NOT_OBJECT_NAMES);
+        return objectNames;
+    }
+
+    /**
+     * Finds objects named after change keywords. The longest keyword phrase wins,
+     * so "create package body" isn't taken for "create package". Schema of qualified names is dropped.
+     *
+     * @param findReferenced also find names of objects referenced by the script
+     */
+    private ScriptObjects findDbObjects(String scriptText, boolean findReferenced) {
+        List<String> tokens = SqlTokenizer.tokenize(scriptText);
+        // "create or replace editionable package" is the same change as "create or replace package"
+        tokens.removeIf(EDITIONING_KEYWORDS::contains);
+        ScriptObjects scriptObjects = new ScriptObjects(findReferenced);
+        int i = 0;
+        while (i < tokens.size()) {
+            List<String> phrase = matchChangePhrase(tokens, i);
+            if (phrase != null) {
+                List<String> nameParts = readNameParts(tokens, i + phrase.size());
+                i += phrase.size() + getTokensCount(nameParts);
+                if (phrase.equals(COLUMN_COMMENT_PHRASE) && nameParts.size() > 1) {
+                    nameParts = nameParts.subList(0, nameParts.size() - 1);
+                }
+                if (nameParts.isEmpty()) {
+                    // name is concatenated at runtime
+                    scriptObjects.unknownChanges = true;
+                    continue;
+                }
+                String name = nameParts.get(nameParts.size() - 1);
+                scriptObjects.changedNames.add(name);
+                DbObjectType dbObjectType = CHANGE_PHRASES.get(phrase);
+                if (dbObjectType != null) {
+                    scriptObjects.changedObjects.add(new DbObject(name, dbObjectType));
+                }
+                continue;
+            }
+
+            String word = tokens.get(i);
+            if (!SqlTokenizer.isWord(word)) {
+                i++;
+            } else if (isStatementStart(tokens, i) && (word.equals("grant") || word.equals("revoke"))) {
+                findGrantedObject(tokens, i, scriptObjects);
+                i++;
+            } else if (isStatementStart(tokens, i) && word.equals("rename")) {
+                List<String> nameParts = readNameParts(tokens, i + 1);
+                if (nameParts.isEmpty()) {
+                    scriptObjects.unknownChanges = true;
+                } else {
+                    scriptObjects.changedNames.add(nameParts.get(nameParts.size() - 1));
+                }
+                i++;
+            } else {
+                if (isUnknownChange(tokens, i)) {
+                    scriptObjects.unknownChanges = true;
+                }
+                i += findReferenced ? findReferencedName(tokens, i, scriptObjects.referencedNames) : 1;
+            }
+        }
+        return scriptObjects;
+    }
+
+    private List<String> matchChangePhrase(List<String> tokens, int start) {
+        for (int length = Math.min(MAX_CHANGE_PHRASE_LENGTH, tokens.size() - start); length > 0; length--) {
+            List<String> phrase = tokens.subList(start, start + length);
+            if (CHANGE_PHRASES.containsKey(phrase) || UNTYPED_CHANGE_PHRASES.contains(phrase)) {
+                return phrase;
+            }
+        }
+        return null;
+    }
+
+    private boolean isStatementStart(List<String> tokens, int index) {
+        if (index == 0 || STATEMENT_STARTS.contains(tokens.get(index - 1))) {
+            return true;
+        }
+        // "replace" of "create or replace"
+        return index > 1 && tokens.get(index - 1).equals("or") && tokens.get(index - 2).equals("create");
+    }
+
+    /**
+     * @return true if the word starts DDL which isn't matched by change keywords or executes SQL built at runtime
+     */
+    private boolean isUnknownChange(List<String> tokens, int index) {
+        String word = tokens.get(index);
+        String next = index + 1 < tokens.size() ? tokens.get(index + 1) : "";
+        if (DYNAMIC_SQL_NAMES.contains(word)) {
+            return true;
+        }
+        if (word.equals("immediate") && index > 0 && tokens.get(index - 1).equals("execute")) {
+            return !STATEMENT_KEYWORDS.contains(next);
+        }
+        if (!isStatementStart(tokens, index)) {
+            return false;
+        }
+        switch (word) {
+            case "create":
+                return !next.equals("or");
+            case "alter":
+                return !next.equals("session") && !next.equals("system");
+            case "drop":
+            case "replace":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Grant or revoke of object privileges changes the object for other schemas.
+     * System privileges and roles may validate any object.
+     */
+    private void findGrantedObject(List<String> tokens, int start, ScriptObjects scriptObjects) {
+        for (int i = start + 1; i < tokens.size() && !GRANT_ENDS.contains(tokens.get(i)); i++) {
+            if (tokens.get(i).equals("on")) {
+                List<String> nameParts = readNameParts(tokens, i + 1);
+                if (!nameParts.isEmpty()) {
+                    scriptObjects.changedNames.add(nameParts.get(nameParts.size() - 1));
+                    return;
+                }
+                break;
+            }
+        }
+        scriptObjects.unknownChanges = true;
+    }
+
+    /**
+     * Adds name of the object referenced after a keyword like "from", "delete", "truncate table" or "into"
+     * of insert, merge and every "into" of multi-table insert, the package and sequence of
+     * "pkg.proc(" and "seq.nextval" expressions, the function of "func(" expression and the procedure
+     * of "begin proc; end;" call
+     *
+     * @return number of processed tokens
+     */
+    private int findReferencedName(List<String> tokens, int start, Set<String> referencedNames) {
+        String word = tokens.get(start);
+        String prev = start > 0 ? tokens.get(start - 1) : "";
+        if (REFERENCE_KEYWORDS.contains(word)
+                || (word.equals("into") && (INTO_REFERENCE_KEYWORDS.contains(prev) || isMultiTableInsert(tokens, start)))
+                || (word.equals("table") && TABLE_REFERENCE_KEYWORDS.contains(prev))) {
+            List<String> nameParts = readNameParts(tokens, start + 1);
+            if (!nameParts.isEmpty()) {
+                referencedNames.add(nameParts.get(nameParts.size() > 1 ? 1 : 0));
+            }
+            return 1;
+        }
+
+        List<String> nameParts = readNameParts(tokens, start);
+        int end = start + getTokensCount(nameParts);
+        String next = end < tokens.size() ? tokens.get(end) : "";
+        boolean isCall = next.equals("(") || (next.equals(";") && isStatementStart(tokens, start));
+        if (nameParts.size() > 1) {
+            if (isCall || SEQUENCE_PSEUDOCOLUMNS.contains(nameParts.get(nameParts.size() - 1))) {
+                referencedNames.add(nameParts.get(nameParts.size() - 2));
+            }
+        } else if (isCall && !NOT_CALLED_NAMES.contains(word)) {
+            referencedNames.add(word);
+        }
+        return end - start;
+    }
+
+    /**
+     * @return true if the token is in "insert all" or "insert first" statement before its subquery
+     */
+    private boolean isMultiTableInsert(List<String> tokens, int index) {
+        for (int i = index - 1; i > 0; i--) {
+            String token = tokens.get(i);
+            if (token.equals("select") || token.equals(";") || token.equals("/")) {
+                return false;
+            }
+            if (MULTI_TABLE_INSERT_KEYWORDS.contains(token) && tokens.get(i - 1).equals("insert")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads dot separated parts of a name like schema.table.column
+     */
+    private List<String> readNameParts(List<String> tokens, int start) {
+        List<String> nameParts = new ArrayList<>();
+        int i = start;
+        while (i < tokens.size() && SqlTokenizer.isWord(tokens.get(i))) {
+            nameParts.add(tokens.get(i));
+            if (i + 1 < tokens.size() && tokens.get(i + 1).equals(".")) {
+                i += 2;
+            } else {
+                break;
+            }
+        }
+        return nameParts;
+    }
+
+    private int getTokensCount(List<String> nameParts) {
+        return Math.max(0, nameParts.size() * 2 - 1);
+    }
+
+    private static List<String> toPhrase(String keyword) {
+        return asList(keyword.trim().split("\\s+"));
+    }
+
+    private static class ScriptObjects {
+        private final List<DbObject> changedObjects = new ArrayList<>();
+        private final Set<String> changedNames = new HashSet<>();
+        private final Set<String> referencedNames;
+        private boolean unknownChanges;
+
+        ScriptObjects(boolean findReferenced) {
+            referencedNames = findReferenced ? new HashSet<>() : null;
+        }
+    }
+}
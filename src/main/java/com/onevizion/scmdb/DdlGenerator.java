@@ -2,6 +2,9 @@ package com.onevizion.scmdb;
 
 import com.onevizion.scmdb.dao.DdlDao;
 import com.onevizion.scmdb.vo.DbObject;
+import com.onevizion.scmdb.vo.DbObjectType;
+import oracle.ucp.jdbc.PoolDataSource;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
@@ -9,12 +12,26 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.sql.DataSource;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
 import static com.onevizion.scmdb.ColorLogger.Color.RED;
@@ -26,6 +43,7 @@ public class DdlGenerator {
     private static final String PACKAGE_OR_TYPE_SPEC_DDL_FILE_POSTFIX = "_spec";
     private static final String EDITIONABLE_MODIFIER = "EDITIONABLE ";
     private static final String NOEDITIONABLE_MODIFIER = "NONEDITIONABLE ";
+    private static final String NO_DEPENDENTS_HASH = "-";
     private static final String PK_CONSTRAINT_INDEX_POSTFIX = "\n  USING INDEX  ENABLE";
     private static final Pattern CONSTRAINTS_BLOCK_PATTERN = Pattern.compile("(^\\s*CONSTRAINT[\\s\\S]*)(\\n\\s*\\);)", Pattern.MULTILINE);
     private static final Pattern CONSTRAINT_NAME_PATTERN = Pattern.compile("CONSTRAINT\\s(\\S*)\\s", Pattern.MULTILINE);
@@ -58,6 +76,14 @@ public class DdlGenerator {
     @Autowired
     private AppArguments appArguments;
 
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Manifest of the running --all generation, null for generation of changed objects
+     */
+    private volatile DdlManifest ddlManifest;
+
     @Autowired
     private ColorLogger logger;
 
@@ -70,10 +96,6 @@ public class DdlGenerator {
     private static final String VIEWS_DDL_DIRECTORY_NAME = "views";
     private static final String TYPES_DDL_DIRECTORY_NAME = "types";
 
-    public void executeSettingTransformParams() {
-        ddlDao.executeTransformParamStatements();
-    }
-
     private void generatePackageSpecScripts(DbObject pkgSpec) {
         if (!isExcludeObject(pkgSpec.getName(), excludedPackages)) {
             logger.info("Generating DDL for package spec [{}]", GREEN, pkgSpec.getName());
@@ -98,7 +120,10 @@ public class DdlGenerator {
         }
     }
 
-    private void generateTableScripts(DbObject table) {
+    /**
+     * @param dependentDdls DDL of table comments, indexes, sequences and triggers by their type
+     */
+    private void generateTableScripts(DbObject table, Function<DbObjectType, List<DbObject>> dependentDdls) {
         logger.info("Generating DDL for table [{}]", GREEN, table.getName());
         String ddl = removeSchemaNameInDdl(table.getDdl());
         ddl = ddl.trim();
@@ -110,10 +135,10 @@ public class DdlGenerator {
         ddl = ddl.replaceAll("\\t", "    ");
         ddl = ddl.replaceAll("\\r\\n\\s+REFERENCES\\s", " REFERENCES ");
         ddl = sortConstraintsInTableDdl(ddl);
-        ddl += generateIndexScripts(table);
-        ddl += generateTableCommentsDdl(table);
-        ddl += generateSequenceScripts(table);
-        ddl += generateTriggerScripts(table);
+        ddl += generateIndexScripts(dependentDdls.apply(INDEX));
+        ddl += generateTableCommentsDdl(dependentDdls.apply(COMMENT));
+        ddl += generateSequenceScripts(dependentDdls.apply(SEQUENCE));
+        ddl += generateTriggerScripts(dependentDdls.apply(TRIGGER));
         table.setDdl(ddl);
         prepareAndWriteDdlToFile(table, TABLES_DDL_DIRECTORY_NAME);
     }
@@ -162,6 +187,38 @@ public class DdlGenerator {
     private void prepareAndWriteDdlToFile(DbObject dbObject, String ddlDirectoryName) {
         dbObject.setDdl(applyCodeStyleFormattingToDdl(dbObject.getDdl()));
 
+        File file = getDdlFile(dbObject, ddlDirectoryName);
+        if (ddlManifest != null) {
+            String ddlHash = DigestUtils.sha1Hex(dbObject.getDdl());
+            boolean sameDdl = ddlHash.equals(readFileHash(file));
+            ddlManifest.putDdl(dbObject, ddlHash);
+            if (sameDdl) {
+                // object was changed in DB but its DDL is the same, file isn't touched
+                return;
+            }
+        }
+        try {
+            FileUtils.write(file, dbObject.getDdl(), "UTF-8", false);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't write ddl to file[" + file.getAbsolutePath() + "]", e);
+        }
+    }
+
+    /**
+     * @return sha1 of the file content like the hash of DDL written to it, null if there is no readable file
+     */
+    private String readFileHash(File file) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return DigestUtils.sha1Hex(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private File getDdlFile(DbObject dbObject, String ddlDirectoryName) {
         String directoryPath = appArguments.getDdlsDirectory().getAbsolutePath() + File.separator + ddlDirectoryName;
 
         String filePath = directoryPath + File.separator + dbObject.getName().toLowerCase();
@@ -169,17 +226,31 @@ public class DdlGenerator {
             filePath += PACKAGE_OR_TYPE_SPEC_DDL_FILE_POSTFIX;
         }
         filePath += ".sql";
-        File file = new File(filePath);
-        try {
-            FileUtils.write(file, dbObject.getDdl(), "UTF-8", false);
-        } catch (IOException e) {
-            throw new RuntimeException("Can't write ddl to file[" + file.getAbsolutePath() + "]", e);
+        return new File(filePath);
+    }
+
+    /**
+     * @return DDL file of the object generated with --all, null for objects without own file
+     */
+    private File getDdlFile(DbObject dbObject) {
+        switch (dbObject.getType()) {
+            case PACKAGE_SPEC:
+            case PACKAGE_BODY:
+                return getDdlFile(dbObject, PACKAGES_DDL_DIRECTORY_NAME);
+            case TABLE:
+                return getDdlFile(dbObject, TABLES_DDL_DIRECTORY_NAME);
+            case VIEW:
+                return getDdlFile(dbObject, VIEWS_DDL_DIRECTORY_NAME);
+            case TYPE_SPEC:
+            case TYPE_BODY:
+                return getDdlFile(dbObject, TYPES_DDL_DIRECTORY_NAME);
+            default:
+                return null;
         }
     }
 
-    private String generateTableCommentsDdl(DbObject table) {
+    private String generateTableCommentsDdl(List<DbObject> commentBlocks) {
         logger.info("Adding comments...");
-        List<DbObject> commentBlocks = ddlDao.extractTableDependentObjectsDdl(table.getName(), COMMENT);
         StringBuilder commentsDdl = new StringBuilder();
         for (DbObject commentBlock : commentBlocks) {
             String ddl = removeSchemaNameInDdl(commentBlock.getDdl());
@@ -210,9 +281,8 @@ public class DdlGenerator {
         return commentsDdl.toString();
     }
 
-    private String generateIndexScripts(DbObject table) {
+    private String generateIndexScripts(List<DbObject> indexes) {
         logger.info("Adding indexes...");
-        List<DbObject> indexes = ddlDao.extractTableDependentObjectsDdl(table.getName(), INDEX);
         StringBuilder indexesDdl = new StringBuilder();
         for (int i = 0; i < indexes.size(); i++) {
             DbObject index = indexes.get(i);
@@ -229,9 +299,8 @@ public class DdlGenerator {
         return indexesDdl.toString();
     }
 
-    private String generateSequenceScripts(DbObject table) {
+    private String generateSequenceScripts(List<DbObject> sequences) {
         logger.info("Adding sequences...");
-        List<DbObject> sequences = ddlDao.extractTableDependentObjectsDdl(table.getName(), SEQUENCE);
         StringBuilder sequencesDdl = new StringBuilder();
         for (DbObject sequence : sequences) {
             String ddl = removeSchemaNameInDdl(sequence.getDdl());
@@ -260,9 +329,8 @@ public class DdlGenerator {
         return sequencesDdl.toString();
     }
 
-    private String generateTriggerScripts(DbObject table) {
+    private String generateTriggerScripts(List<DbObject> triggers) {
         logger.info("Adding triggers...");
-        List<DbObject> triggers = ddlDao.extractTableDependentObjectsDdl(table.getName(), TRIGGER);
         StringBuilder triggersDdl = new StringBuilder();
         if (!triggers.isEmpty()) {
             triggersDdl.append("\r\n");
@@ -279,22 +347,21 @@ public class DdlGenerator {
         return triggersDdl.toString();
     }
 
-    private void generateViewScripts(DbObject view) {
+    private void generateViewScripts(DbObject view, List<DbObject> comments) {
         if (!isExcludeObject(view.getName(), excludedViews)) {
             logger.info("Generating DDL for view [{}]", GREEN, view.getName());
             String ddl = removeSchemaNameInDdl(view.getDdl());
             ddl = ddl.trim();
             ddl = ddl.replaceAll("\\s+;", ";");
             ddl = ddl.replaceAll("\\n", "\r\n");
-            ddl += generateViewCommentsScripts(view);
+            ddl += generateViewCommentsScripts(comments);
             view.setDdl(ddl);
             prepareAndWriteDdlToFile(view, VIEWS_DDL_DIRECTORY_NAME);
         }
     }
 
-    private String generateViewCommentsScripts(DbObject view) {
+    private String generateViewCommentsScripts(List<DbObject> comments) {
         logger.info("Adding views comments...");
-        List<DbObject> comments = ddlDao.extractTableDependentObjectsDdl(view.getName(), COMMENT);
         StringBuilder commentsDdl = new StringBuilder();
         for (DbObject comment : comments) {
             String ddl = removeSchemaNameInDdl(comment.getDdl());
@@ -327,6 +394,7 @@ public class DdlGenerator {
 
     public void generateDdls(Collection<DbObject> dbObjects, boolean skipGenDdlForDepObject) {
         Set<DbObject> tables = new HashSet<>();
+        List<Consumer<DdlDao>> extractions = new ArrayList<>();
         for (DbObject dbObject : dbObjects) {
             if (dbObject.getType() == COMMENT && !skipGenDdlForDepObject) {
                 dbObject.setType(ddlDao.getObjectTypeByName(dbObject.getName()));
@@ -354,24 +422,39 @@ public class DdlGenerator {
                 }
             } else {
                 if (!checkAndDeleteRedundantDdl(dbObject)) {
-                    dbObject.setDdl(ddlDao.extractDdl(dbObject));
-                    if (dbObject.getType() == PACKAGE_BODY) {
-                        generatePackageBodyScripts(dbObject);
-                    } else if (dbObject.getType() == PACKAGE_SPEC) {
-                        generatePackageSpecScripts(dbObject);
-                    } else if (dbObject.getType() == VIEW) {
-                        generateViewScripts(dbObject);
-                    } else if (dbObject.getType() == TYPE_BODY) {
-                        generateTypeBodyScripts(dbObject);
-                    } else if (dbObject.getType() == TYPE_SPEC) {
-                        generateTypeSpecScripts(dbObject);
-                    }
+                    extractions.add(session -> generateScripts(dbObject, session));
                 }
             }
         }
         for (DbObject table : tables) {
-            table.setDdl(ddlDao.extractDdl(table));
-            generateTableScripts(table);
+            extractions.add(session -> generateScripts(table, session));
+        }
+        runInSessions(extractions);
+    }
+
+    private void generateScripts(DbObject dbObject, DdlDao session) {
+        dbObject.setDdl(session.extractDdl(dbObject));
+        generateScripts(dbObject, depObjType -> session.extractTableDependentObjectsDdl(dbObject.getName(), depObjType));
+    }
+
+    /**
+     * Writes DDL file of the object with extracted DDL
+     *
+     * @param dependentDdls DDL of dependent objects of the table or view by their type
+     */
+    private void generateScripts(DbObject dbObject, Function<DbObjectType, List<DbObject>> dependentDdls) {
+        if (dbObject.getType() == PACKAGE_BODY) {
+            generatePackageBodyScripts(dbObject);
+        } else if (dbObject.getType() == PACKAGE_SPEC) {
+            generatePackageSpecScripts(dbObject);
+        } else if (dbObject.getType() == VIEW) {
+            generateViewScripts(dbObject, dependentDdls.apply(COMMENT));
+        } else if (dbObject.getType() == TYPE_BODY) {
+            generateTypeBodyScripts(dbObject);
+        } else if (dbObject.getType() == TYPE_SPEC) {
+            generateTypeSpecScripts(dbObject);
+        } else if (dbObject.getType() == TABLE) {
+            generateTableScripts(dbObject, dependentDdls);
         }
     }
 
@@ -444,8 +527,216 @@ public class DdlGenerator {
         }
     }
 
+    /**
+     * Extracts DDL of all objects with a few set-based queries per object type instead of several queries per object.
+     * Objects are taken from user_objects, so they aren't checked for existence. Triggers are generated
+     * with their tables only.
+     * Only objects changed in DB since the previous generation are extracted, see {@link DdlManifest}.
+     * Files of objects dropped since then are deleted.
+     */
     public void generateDllsForAllDbObjects() {
-        generateDdls(ddlDao.extractAllDbObjectsWithoutDdl(), true);
+        ddlManifest = DdlManifest.load(appArguments.getCacheDirectory());
+        try {
+            generateChangedDdls();
+        } finally {
+            saveDdlManifest();
+            ddlManifest = null;
+        }
+    }
+
+    private void generateChangedDdls() {
+        Map<DbObject, Long> lastDdlTimes = ddlDao.readLastDdlTimes();
+        Map<String, List<String>> tablesDependentObjects = ddlDao.readTablesDependentObjects();
+        Map<DbObjectType, List<DbObject>> objectsByType = new EnumMap<>(DbObjectType.class);
+        int unchangedCount = 0;
+        for (Map.Entry<DbObject, Long> lastDdlTime : lastDdlTimes.entrySet()) {
+            DbObject dbObject = lastDdlTime.getKey();
+            if (dbObject.getType() == TRIGGER || isExcludedObject(dbObject)) {
+                continue;
+            }
+            String dependentsHash = getDependentsHash(tablesDependentObjects.get(dbObject.getName()));
+            // file may be changed by checkout or by hand since the previous generation
+            if (ddlManifest.isSameVersion(dbObject, lastDdlTime.getValue(), dependentsHash)
+                    && ddlManifest.isSameDdl(dbObject, readFileHash(getDdlFile(dbObject)))) {
+                ddlManifest.keep(dbObject);
+                unchangedCount++;
+            } else {
+                ddlManifest.setActualVersion(dbObject, lastDdlTime.getValue(), dependentsHash);
+                objectsByType.computeIfAbsent(dbObject.getType(), type -> new ArrayList<>()).add(dbObject);
+            }
+        }
+        deleteDroppedObjectsDdl(lastDdlTimes.keySet());
+        logger.info("DDL of {} objects wasn't changed since the previous generation", GREEN, unchangedCount);
+
+        List<Consumer<DdlDao>> extractions = new ArrayList<>();
+        for (Map.Entry<DbObjectType, List<DbObject>> objects : objectsByType.entrySet()) {
+            extractions.add(session -> {
+                logger.info("Extracting DDL for {} objects of type [{}]", GREEN, objects.getValue().size(),
+                            objects.getKey().getName());
+                Map<String, String> ddls = session.extractDdls(objects.getKey(), getNames(objects.getValue()));
+                objects.getValue().forEach(dbObject -> dbObject.setDdl(ddls.get(dbObject.getName())));
+            });
+        }
+
+        List<DbObject> tables = objectsByType.getOrDefault(TABLE, Collections.emptyList());
+        List<DbObject> tablesAndViews = new ArrayList<>(tables);
+        tablesAndViews.addAll(objectsByType.getOrDefault(VIEW, Collections.emptyList()));
+        Map<DbObjectType, Map<String, List<DbObject>>> dependentDdls = new ConcurrentHashMap<>();
+        extractions.add(session -> dependentDdls.put(COMMENT, session.extractTablesDependentObjectsDdl(
+                getNames(tablesAndViews), COMMENT)));
+        for (DbObjectType depObjType : Arrays.asList(INDEX, SEQUENCE, TRIGGER)) {
+            extractions.add(session -> dependentDdls.put(depObjType, session.extractTablesDependentObjectsDdl(
+                    getNames(tables), depObjType)));
+        }
+        runInSessions(extractions);
+
+        List<Runnable> generations = new ArrayList<>();
+        for (List<DbObject> objects : objectsByType.values()) {
+            for (DbObject dbObject : objects) {
+                if (dbObject.getDdl() == null) {
+                    logger.warn("DDL of {} {} wasn't extracted, it may be dropped.", RED, dbObject.getType(),
+                                dbObject.getName());
+                    continue;
+                }
+                generations.add(() -> generateScripts(dbObject, depObjType -> dependentDdls.get(depObjType)
+                                                                                           .getOrDefault(dbObject.getName(),
+                                                                                                         Collections.emptyList())));
+            }
+        }
+        Queue<Runnable> queue = new ConcurrentLinkedQueue<>(generations);
+        runWorkers(getWorkersCount(generations.size()), () -> {
+            Runnable generation;
+            while ((generation = queue.poll()) != null) {
+                generation.run();
+            }
+        }, queue);
+    }
+
+    /**
+     * Runs DDL extractions by up to --ddl-threads workers, each in its own session with DBMS_METADATA transforms set.
+     * Every object is written to its own file, so files are the same as with serial extraction.
+     */
+    private void runInSessions(List<Consumer<DdlDao>> extractions) {
+        int workers = Math.min(getWorkersCount(extractions.size()), getFreeSessionsCount());
+        Queue<Consumer<DdlDao>> queue = new ConcurrentLinkedQueue<>(extractions);
+        runWorkers(workers, () -> {
+            DdlDao session = ddlDao.openSession();
+            try {
+                Consumer<DdlDao> extraction;
+                while ((extraction = queue.poll()) != null) {
+                    extraction.accept(session);
+                }
+            } finally {
+                session.closeSession();
+            }
+        }, queue);
+    }
+
+    /**
+     * Runs workers which take tasks from the queue. After a failure the queue is cleared,
+     * so other workers stop after their current tasks.
+     */
+    private void runWorkers(int workers, Runnable worker, Queue<?> queue) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        worker.run();
+                    } catch (RuntimeException e) {
+                        queue.clear();
+                        throw e;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("DDL generation is interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Can't generate DDL.", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int getWorkersCount(int tasksCount) {
+        return Math.max(1, Math.min(appArguments.getDdlThreads(), tasksCount));
+    }
+
+    /**
+     * One connection of the pool is left for queries of the shared DAO
+     */
+    private int getFreeSessionsCount() {
+        if (dataSource instanceof PoolDataSource) {
+            PoolDataSource poolDataSource = (PoolDataSource) dataSource;
+            try {
+                return Math.max(1, poolDataSource.getMaxPoolSize() - poolDataSource.getBorrowedConnectionsCount() - 1);
+            } catch (SQLException e) {
+                return Math.max(1, poolDataSource.getMaxPoolSize() - 1);
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Deletes files of objects from the manifest which don't exist in DB anymore
+     */
+    private void deleteDroppedObjectsDdl(Set<DbObject> existingObjects) {
+        for (DbObject dbObject : ddlManifest.getSavedObjects()) {
+            File file = getDdlFile(dbObject);
+            if (existingObjects.contains(dbObject) || file == null) {
+                continue;
+            }
+            logger.info("Deleting DDL of dropped {} [{}]", GREEN, dbObject.getType().getName(), dbObject.getName());
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException("Can't delete ddl file [" + file.getAbsolutePath() + "]", e);
+            }
+        }
+    }
+
+    private static String getDependentsHash(List<String> dependentObjects) {
+        if (dependentObjects == null) {
+            return NO_DEPENDENTS_HASH;
+        }
+        List<String> sortedDependentObjects = new ArrayList<>(dependentObjects);
+        Collections.sort(sortedDependentObjects);
+        return DigestUtils.sha1Hex(String.join("\n", sortedDependentObjects));
+    }
+
+    private void saveDdlManifest() {
+        try {
+            ddlManifest.save();
+        } catch (IOException e) {
+            logger.warn("Can't save DDL manifest [{}]: {}", RED, ddlManifest.getManifestFile().getAbsolutePath(),
+                        e.getMessage());
+        }
+    }
+
+    private boolean isExcludedObject(DbObject dbObject) {
+        if (dbObject.getType() == PACKAGE_SPEC || dbObject.getType() == PACKAGE_BODY) {
+            return isExcludeObject(dbObject.getName(), excludedPackages);
+        } else if (dbObject.getType() == VIEW) {
+            return isExcludeObject(dbObject.getName(), excludedViews);
+        }
+        return false;
+    }
+
+    private static List<String> getNames(List<DbObject> dbObjects) {
+        return dbObjects.stream()
+                        .map(DbObject::getName)
+                        .collect(Collectors.toList());
     }
 
     private String sortConstraintsInTableDdl(String sourceDdlScript) {
@@ -0,0 +1,140 @@
+package com.onevizion.scmdb;
+
+import com.onevizion.scmdb.vo.DbObject;
+import com.onevizion.scmdb.vo.DbObjectType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local manifest of generated DDL files stored in the cache directory out of the VCS tree,
+ * one "type|name|lastDdlTime|dependentsHash|ddlHash" line per object. It lets --gen-ddl --all regenerate only objects changed in DB since the previous generation.
+ * Dependents hash covers names and last DDL times of table indexes, triggers and sequences,
+ * which don't change last DDL time of the table.
+ */
+public class DdlManifest {
+    public static final String MANIFEST_FILE_NAME = ".scmdb_ddl_manifest";
+
+    private static final String SEPARATOR = "|";
+
+    private final File manifestFile;
+    private final Map<DbObject, Entry> savedEntries = new HashMap<>();
+    private final Map<DbObject, Entry> actualEntries = new ConcurrentHashMap<>();
+    private final Map<DbObject, Entry> actualVersions = new ConcurrentHashMap<>();
+
+    private DdlManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public static DdlManifest load(File cacheDirectory) {
+        DdlManifest manifest = new DdlManifest(new File(cacheDirectory, MANIFEST_FILE_NAME));
+        if (!manifest.manifestFile.isFile()) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest.manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\" + SEPARATOR);
+                if (parts.length == 5) {
+                    DbObject dbObject = new DbObject(parts[1], DbObjectType.getByName(parts[0]));
+                    manifest.savedEntries.put(dbObject, new Entry(Long.parseLong(parts[2]), parts[3], parts[4]));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // broken manifest is not an error, all objects will be generated again
+            manifest.savedEntries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * @return true if the object wasn't changed in DB since its DDL was generated
+     */
+    public boolean isSameVersion(DbObject dbObject, long lastDdlTime, String dependentsHash) {
+        Entry entry = savedEntries.get(dbObject);
+        return entry != null && entry.lastDdlTime == lastDdlTime && entry.dependentsHash.equals(dependentsHash);
+    }
+
+    /**
+     * @return true if DDL with this hash was written to the object file by the previous generation
+     */
+    public boolean isSameDdl(DbObject dbObject, String ddlHash) {
+        Entry entry = savedEntries.get(dbObject);
+        return entry != null && entry.ddlHash.equals(ddlHash);
+    }
+
+    /**
+     * Keeps entry of the object which wasn't changed
+     */
+    public void keep(DbObject dbObject) {
+        actualEntries.put(dbObject, savedEntries.get(dbObject));
+    }
+
+    /**
+     * Sets version of the changed object which DDL is generated by this run
+     */
+    public void setActualVersion(DbObject dbObject, long lastDdlTime, String dependentsHash) {
+        actualVersions.put(dbObject, new Entry(lastDdlTime, dependentsHash, null));
+    }
+
+    /**
+     * Adds entry of the object with its actual version and written DDL
+     */
+    public void putDdl(DbObject dbObject, String ddlHash) {
+        Entry version = actualVersions.get(dbObject);
+        if (version != null) {
+            actualEntries.put(dbObject, new Entry(version.lastDdlTime, version.dependentsHash, ddlHash));
+        }
+    }
+
+    /**
+     * @return objects of the previous generation
+     */
+    public Set<DbObject> getSavedObjects() {
+        return savedEntries.keySet();
+    }
+
+    public boolean isEmpty() {
+        return savedEntries.isEmpty();
+    }
+
+    /**
+     * Saves entries kept or put during this generation, entries of dropped objects are removed
+     */
+    public void save() throws IOException {
+        Files.createDirectories(manifestFile.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<DbObject, Entry> e : actualEntries.entrySet()) {
+                writer.write(e.getKey().getType().getName() + SEPARATOR + e.getKey().getName() + SEPARATOR
+                        + e.getValue().lastDdlTime + SEPARATOR + e.getValue().dependentsHash + SEPARATOR
+                        + e.getValue().ddlHash);
+                writer.newLine();
+            }
+        }
+    }
+
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    private static class Entry {
+        private final long lastDdlTime;
+        private final String dependentsHash;
+        private final String ddlHash;
+
+        Entry(long lastDdlTime, String dependentsHash, String ddlHash) {
+            this.lastDdlTime = lastDdlTime;
+            this.dependentsHash = dependentsHash;
+            this.ddlHash = ddlHash;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.onevizion.scmdb;
+
+import com.onevizion.scmdb.vo.SqlScript;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
+import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationHMS;
+
+/**
+ * Progress of new scripts execution with ETA. ETA is the predicted runtime of not finished scripts
+ * corrected by the ratio of actual and predicted runtime of finished ones, so it accounts for DB speed
+ * and concurrent execution. Scripts without runtime history are predicted by the average of known runtimes.
+ */
+public class ExecutionProgress {
+    private final ColorLogger logger;
+    private final Map<SqlScript, Long> predictedMillis = new IdentityHashMap<>();
+    private final Instant start = Instant.now();
+    private final int scriptsCount;
+
+    private int finishedCount;
+    private long remainingPredictedMillis;
+    private long finishedPredictedMillis;
+
+    /**
+     * @param predictor predicted runtime of a script in milliseconds, null if it's unknown
+     */
+    public ExecutionProgress(List<SqlScript> scripts, Function<SqlScript, Long> predictor, ColorLogger logger) {
+        this.logger = logger;
+        scriptsCount = scripts.size();
+
+        long knownMillis = 0;
+        int knownCount = 0;
+        for (SqlScript script : scripts) {
+            Long millis = predictor.apply(script);
+            if (millis != null) {
+                predictedMillis.put(script, millis);
+                knownMillis += millis;
+                knownCount++;
+            }
+        }
+        long defaultMillis = knownCount == 0 ? 0 : knownMillis / knownCount;
+        for (SqlScript script : scripts) {
+            predictedMillis.putIfAbsent(script, defaultMillis);
+            remainingPredictedMillis += predictedMillis.get(script);
+        }
+    }
+
+    public synchronized void scriptFinished(SqlScript script) {
+        Long millis = predictedMillis.remove(script);
+        if (millis == null) {
+            return;
+        }
+        finishedCount++;
+        remainingPredictedMillis -= millis;
+        finishedPredictedMillis += millis;
+
+        long elapsedMillis = Duration.between(start, Instant.now()).toMillis();
+        String eta = "unknown";
+        if (finishedCount == scriptsCount) {
+            eta = formatDurationHMS(0);
+        } else if (finishedPredictedMillis > 0) {
+            double speedRatio = (double) elapsedMillis / finishedPredictedMillis;
+            eta = formatDurationHMS(Math.round(remainingPredictedMillis * speedRatio));
+        }
+        logger.info("Progress: {} of {} scripts, elapsed: {}, ETA: {}", GREEN, finishedCount, scriptsCount,
+                    formatDurationHMS(elapsedMillis), eta);
+    }
+}
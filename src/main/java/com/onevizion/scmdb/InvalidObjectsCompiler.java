@@ -0,0 +1,392 @@
+package com.onevizion.scmdb;
+
+import oracle.jdbc.OracleConnection;
+import oracle.ucp.jdbc.PoolDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
+import static com.onevizion.scmdb.ColorLogger.Color.YELLOW;
+
+/**
+ * Compiles invalid objects of a schema in dependency order.
+ * Invalid objects are split into levels: objects of a level depend only on valid objects and objects of previous levels,
+ * so objects of a level are compiled concurrently, each worker in its own session.
+ */
+@Component
+public class InvalidObjectsCompiler {
+    private static final String OBJECT_TYPES = "'TRIGGER', 'PROCEDURE', 'FUNCTION', 'PACKAGE', 'PACKAGE BODY', 'TYPE'," +
+            " 'TYPE BODY', 'INDEX', 'VIEW', 'SYNONYM'";
+    private static final String READ_INVALID_OBJECTS = "select object_name, object_type from user_objects" +
+            " where status <> 'VALID' and object_type in (" + OBJECT_TYPES + ")";
+    private static final String READ_DEPENDENCIES = "select d.name, d.type, d.referenced_name, d.referenced_type" +
+            " from user_dependencies d" +
+            " join user_objects o on o.object_name = d.name and o.object_type = d.type" +
+            " where o.status <> 'VALID' and d.referenced_owner = user";
+    private static final String READ_ERRORS = "select o.object_type, o.object_name, e.line, e.position, e.text" +
+            " from user_objects o" +
+            " left join user_errors e on e.name = o.object_name and e.type = o.object_type and e.attribute = 'ERROR'" +
+            " where o.status <> 'VALID' and o.object_name not like 'BIN$%'" +
+            " order by o.object_type, o.object_name, e.sequence";
+    /**
+     * Invalid objects of the current schema which are changed objects of the owner or depend on them.
+     * Dependents are looked up transitively inside the current schema.
+     */
+    private static final String READ_INVALID_DEPENDENTS = "select o.object_name, o.object_type from user_objects o" +
+            " where o.status <> 'VALID' and o.object_type in (" + OBJECT_TYPES + ")" +
+            " and ((o.object_name, o.object_type) in (" +
+            "   select d.name, d.type from user_dependencies d" +
+            "   start with d.referenced_owner = ? and d.referenced_name in (select column_value from table(?))" +
+            "   connect by nocycle prior d.name = d.referenced_name and prior d.type = d.referenced_type" +
+            "     and d.referenced_owner = user)" +
+            " or (user = ? and o.object_name in (select column_value from table(?))))";
+    /**
+     * Objects of the current schema which depend on the given objects directly or through other objects
+     */
+    private static final String READ_DEPENDENT_NAMES = "select distinct d.name from user_dependencies d" +
+            " start with d.referenced_owner = user and d.referenced_name in (select column_value from table(?))" +
+            " connect by nocycle prior d.name = d.referenced_name and prior d.type = d.referenced_type" +
+            "   and d.referenced_owner = user";
+    private static final String VARCHAR_LIST_TYPE = "SYS.ODCIVARCHAR2LIST";
+    /**
+     * Max size of SYS.ODCIVARCHAR2LIST varray
+     */
+    private static final int MAX_LIST_SIZE = 32767;
+    private static final int MAX_PASSES = 3;
+
+    @Autowired
+    private AppArguments appArguments;
+
+    @Autowired
+    private ColorLogger logger;
+
+    /**
+     * Compiles invalid objects of the schema and reports all objects of the schema which are still invalid
+     *
+     * @param dataSource data source of the schema
+     * @param schemaName schema name used in messages
+     * @param scope objects to compile if they are invalid, null to compile all invalid objects of the schema
+     */
+    public void compileInvalids(DataSource dataSource, String schemaName, Set<InvalidObject> scope) {
+        int prevInvalidCnt = Integer.MAX_VALUE;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            Set<InvalidObject> invalidObjects = readInvalidObjects(dataSource);
+            if (scope != null) {
+                invalidObjects.retainAll(scope);
+            }
+            // compilation may fail because of the object itself, then the next pass won't help
+            if (invalidObjects.isEmpty() || invalidObjects.size() >= prevInvalidCnt) {
+                break;
+            }
+            prevInvalidCnt = invalidObjects.size();
+
+            List<List<InvalidObject>> levels = sortInLevels(invalidObjects, readDependencies(dataSource, invalidObjects));
+            logger.info("Compiling {} invalid objects in [{}] in {} levels", GREEN, invalidObjects.size(), schemaName,
+                        levels.size());
+            for (List<InvalidObject> level : levels) {
+                compileLevel(dataSource, level);
+            }
+        }
+        reportInvalids(dataSource, schemaName);
+    }
+
+    /**
+     * Finds names of all objects of the schema which depend on the changed objects of the same schema,
+     * valid or not: objects of other schemas may depend on the changed objects through them
+     *
+     * @param dataSource data source of the schema
+     * @param changedObjectNames names of changed objects
+     * @return changed objects names and names of their dependents in upper case
+     */
+    public Set<String> findDependentNames(DataSource dataSource, Collection<String> changedObjectNames) {
+        Set<String> names = changedObjectNames.stream()
+                                              .map(String::toUpperCase)
+                                              .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (names.isEmpty() || names.size() > MAX_LIST_SIZE) {
+            return names;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(READ_DEPENDENT_NAMES)) {
+            statement.setFetchSize(1000);
+            statement.setArray(1, connection.unwrap(OracleConnection.class)
+                                            .createOracleArray(VARCHAR_LIST_TYPE, names.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString("name"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't read dependents of changed objects.", e);
+        }
+        return names;
+    }
+
+    /**
+     * Finds invalid objects of the schema which are changed objects or depend on them
+     *
+     * @param dataSource data source of the schema
+     * @param ownerName owner of changed objects
+     * @param changedObjectNames names of changed objects, for other schemas also names of owner objects
+     *                           depending on them, see {@link #findDependentNames}
+     * @return invalid objects of the schema, null if there are too many names to look up, then all invalid objects
+     * of the schema should be compiled
+     */
+    public Set<InvalidObject> findInvalidDependents(DataSource dataSource, String ownerName,
+                                                    Collection<String> changedObjectNames) {
+        Set<InvalidObject> invalidObjects = new LinkedHashSet<>();
+        if (changedObjectNames.isEmpty()) {
+            return invalidObjects;
+        }
+        Object[] names = changedObjectNames.stream()
+                                           .map(String::toUpperCase)
+                                           .distinct()
+                                           .toArray();
+        if (names.length > MAX_LIST_SIZE) {
+            return null;
+        }
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(READ_INVALID_DEPENDENTS)) {
+            Array namesArray = connection.unwrap(OracleConnection.class).createOracleArray(VARCHAR_LIST_TYPE, names);
+            statement.setString(1, ownerName.toUpperCase());
+            statement.setArray(2, namesArray);
+            statement.setString(3, ownerName.toUpperCase());
+            statement.setArray(4, namesArray);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    invalidObjects.add(new InvalidObject(rs.getString("object_name"), rs.getString("object_type")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't read dependents of changed objects.", e);
+        }
+        return invalidObjects;
+    }
+
+    private Set<InvalidObject> readInvalidObjects(DataSource dataSource) {
+        Set<InvalidObject> invalidObjects = new LinkedHashSet<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(READ_INVALID_OBJECTS);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                invalidObjects.add(new InvalidObject(rs.getString("object_name"), rs.getString("object_type")));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't read invalid objects.", e);
+        }
+        return invalidObjects;
+    }
+
+    /**
+     * @return invalid objects mapped to invalid objects they depend on
+     */
+    private Map<InvalidObject, Set<InvalidObject>> readDependencies(DataSource dataSource,
+                                                                   Set<InvalidObject> invalidObjects) {
+        Map<InvalidObject, Set<InvalidObject>> dependencies = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(READ_DEPENDENCIES)) {
+            statement.setFetchSize(1000);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    InvalidObject object = new InvalidObject(rs.getString("name"), rs.getString("type"));
+                    InvalidObject referenced = new InvalidObject(rs.getString("referenced_name"),
+                                                                 rs.getString("referenced_type"));
+                    if (!object.equals(referenced) && invalidObjects.contains(object)
+                            && invalidObjects.contains(referenced)) {
+                        dependencies.computeIfAbsent(object, k -> new HashSet<>()).add(referenced);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't read dependencies of invalid objects.", e);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Topological sort by levels. Objects of dependency cycles are put into the last level.
+     */
+    private static List<List<InvalidObject>> sortInLevels(Set<InvalidObject> objects,
+                                                          Map<InvalidObject, Set<InvalidObject>> dependencies) {
+        Map<InvalidObject, Integer> notCompiledDependencyCnt = new HashMap<>();
+        Map<InvalidObject, List<InvalidObject>> dependents = new HashMap<>();
+        for (InvalidObject object : objects) {
+            Set<InvalidObject> objectDependencies = dependencies.getOrDefault(object, Collections.emptySet());
+            notCompiledDependencyCnt.put(object, objectDependencies.size());
+            for (InvalidObject dependency : objectDependencies) {
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(object);
+            }
+        }
+
+        List<List<InvalidObject>> levels = new ArrayList<>();
+        List<InvalidObject> level = new ArrayList<>();
+        notCompiledDependencyCnt.forEach((object, cnt) -> {
+            if (cnt == 0) {
+                level.add(object);
+            }
+        });
+
+        Set<InvalidObject> sorted = new HashSet<>();
+        List<InvalidObject> currentLevel = level;
+        while (!currentLevel.isEmpty()) {
+            levels.add(currentLevel);
+            sorted.addAll(currentLevel);
+            List<InvalidObject> nextLevel = new ArrayList<>();
+            for (InvalidObject object : currentLevel) {
+                for (InvalidObject dependent : dependents.getOrDefault(object, Collections.emptyList())) {
+                    if (notCompiledDependencyCnt.merge(dependent, -1, Integer::sum) == 0) {
+                        nextLevel.add(dependent);
+                    }
+                }
+            }
+            currentLevel = nextLevel;
+        }
+
+        if (sorted.size() < objects.size()) {
+            List<InvalidObject> cycled = new ArrayList<>();
+            for (InvalidObject object : objects) {
+                if (!sorted.contains(object)) {
+                    cycled.add(object);
+                }
+            }
+            levels.add(cycled);
+        }
+        return levels;
+    }
+
+    private void compileLevel(DataSource dataSource, List<InvalidObject> level) {
+        int workers = Math.min(appArguments.getCompileThreads(), level.size());
+        if (dataSource instanceof PoolDataSource) {
+            // sessions of the pool may be used by scripts executed concurrently
+            PoolDataSource poolDataSource = (PoolDataSource) dataSource;
+            try {
+                int freeConnections = poolDataSource.getMaxPoolSize() - poolDataSource.getBorrowedConnectionsCount();
+                workers = Math.max(1, Math.min(workers, freeConnections));
+            } catch (SQLException e) {
+                workers = Math.min(workers, poolDataSource.getMaxPoolSize());
+            }
+        }
+        if (workers == 1) {
+            compile(dataSource, level);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                List<InvalidObject> workerObjects = new ArrayList<>();
+                for (int j = i; j < level.size(); j += workers) {
+                    workerObjects.add(level.get(j));
+                }
+                futures.add(executor.submit(() -> compile(dataSource, workerObjects)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Compilation of invalid objects is interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Can't compile invalid objects.", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void compile(DataSource dataSource, List<InvalidObject> objects) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (InvalidObject object : objects) {
+                try {
+                    statement.execute(object.getCompileSql());
+                } catch (SQLException e) {
+                    // object stays invalid and is reported at the end
+                    logger.debug("Can't compile {}: {}", object, e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't compile invalid objects.", e);
+        }
+    }
+
+    private void reportInvalids(DataSource dataSource, String schemaName) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(READ_ERRORS);
+             ResultSet rs = statement.executeQuery()) {
+            boolean hasInvalids = false;
+            while (rs.next()) {
+                if (!hasInvalids) {
+                    logger.warn("Invalid objects in [{}]:", YELLOW, schemaName);
+                    hasInvalids = true;
+                }
+                String error = rs.getString("text");
+                if (error == null) {
+                    logger.warn("{} {} is invalid.", YELLOW, rs.getString("object_type"), rs.getString("object_name"));
+                } else {
+                    logger.warn("{} {} ({}:{}) {}", YELLOW, rs.getString("object_type"), rs.getString("object_name"),
+                                rs.getInt("line"), rs.getInt("position"), error.trim());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't read invalid objects.", e);
+        }
+    }
+
+    static class InvalidObject {
+        private final String name;
+        private final String type;
+
+        InvalidObject(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        String getCompileSql() {
+            String quotedName = "\"" + name + "\"";
+            switch (type) {
+                case "PACKAGE": return "alter package " + quotedName + " compile specification";
+                case "PACKAGE BODY": return "alter package " + quotedName + " compile body";
+                case "TYPE": return "alter type " + quotedName + " compile specification";
+                case "TYPE BODY": return "alter type " + quotedName + " compile body";
+                case "INDEX": return "alter index " + quotedName + " rebuild";
+                default: return "alter " + type.toLowerCase() + " " + quotedName + " compile";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            InvalidObject that = (InvalidObject) o;
+            return name.equals(that.name) && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + type.hashCode();
+        }
+    }
+}
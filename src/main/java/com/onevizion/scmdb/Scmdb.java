@@ -2,12 +2,12 @@ package com.onevizion.scmdb;
 
 import ch.qos.logback.classic.Logger;
 import com.onevizion.scmdb.exception.ScmdbException;
-import com.onevizion.scmdb.facade.DbScriptFacade;
 import com.onevizion.scmdb.vo.DbCnnCredentials;
 import oracle.dbtools.db.DBUtil;
 import oracle.ucp.jdbc.PoolDataSource;
 import oracle.ucp.jdbc.PoolDataSourceImpl;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import java.util.logging.Level;
@@ -22,31 +22,21 @@ public class Scmdb {
 
     public static void main(String[] args) {
         try {
-            logger.debug("Initialize spring beans");
-            ClassPathXmlApplicationContext ctx = new ClassPathXmlApplicationContext("classpath:beans.xml");
-
-            AppArguments appArguments = ctx.getBean(AppArguments.class);
-            appArguments.parse(args);
-
-            DbScriptFacade sqlScriptsFacade = ctx.getBean(DbScriptFacade.class);
-            sqlScriptsFacade.init();
-
-            PoolDataSourceImpl ownerDs = (PoolDataSourceImpl) ctx.getBean("dataSource");
-            appArguments.fillDataSourceCredentials(ownerDs, OWNER);
-
-            PoolDataSource userDataSource = (PoolDataSource) ctx.getBean("userDataSource");
-            appArguments.fillDataSourceCredentials(userDataSource, USER);
-
-            PoolDataSource rptDataSource = (PoolDataSource) ctx.getBean("rptDataSource");
-            appArguments.fillDataSourceCredentials(rptDataSource, RPT);
-
-            PoolDataSource pkgDataSourceDs = (PoolDataSource) ctx.getBean("pkgDataSource");
-            appArguments.fillDataSourceCredentials(pkgDataSourceDs, PKG);
+            AppArguments appArguments = new AppArguments(args);
 
             //Off logger for oracle.dbtools.db.Oracle Util, if not, Java exception gets into the sql log
             final java.util.logging.Logger dbUtilLogger = java.util.logging.Logger.getLogger(DBUtil.class.getName());
             dbUtilLogger.setLevel(Level.OFF);
 
+            if (appArguments.getTargetsFile() != null || appArguments.isDriftReport()) {
+                int exitCode = new TargetsRunner(appArguments).run();
+                logger.info("\nSCMDB complete");
+                System.exit(exitCode);
+            }
+
+            logger.debug("Initialize spring beans");
+            ClassPathXmlApplicationContext ctx = createContext("classpath:beans.xml", appArguments, null);
+
             DbManager dbManager = ctx.getBean(DbManager.class);
             if (appArguments.isGenDdl()) {
                 if (appArguments.isAll()) {
@@ -67,4 +57,33 @@ public class Scmdb {
         logger.info("\nSCMDB complete");
         System.exit(EXIT_CODE_SUCCESS);
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates Spring context with the given arguments and data sources connected to their schemas
+     *
+     * @param configLocation context configuration
+     * @param appArguments arguments of the run
+     * @param parent parent context, may be null
+     */
+    static ClassPathXmlApplicationContext createContext(String configLocation, AppArguments appArguments,
+                                                        ApplicationContext parent) {
+        ClassPathXmlApplicationContext ctx = new ClassPathXmlApplicationContext(new String[]{configLocation}, false,
+                                                                                parent);
+        ctx.addBeanFactoryPostProcessor(beanFactory -> beanFactory.registerSingleton("appArguments", appArguments));
+        ctx.refresh();
+
+        PoolDataSourceImpl ownerDs = (PoolDataSourceImpl) ctx.getBean("dataSource");
+        appArguments.fillDataSourceCredentials(ownerDs, OWNER);
+
+        PoolDataSource userDataSource = (PoolDataSource) ctx.getBean("userDataSource");
+        appArguments.fillDataSourceCredentials(userDataSource, USER);
+
+        PoolDataSource rptDataSource = (PoolDataSource) ctx.getBean("rptDataSource");
+        appArguments.fillDataSourceCredentials(rptDataSource, RPT);
+
+        PoolDataSource pkgDataSourceDs = (PoolDataSource) ctx.getBean("pkgDataSource");
+        appArguments.fillDataSourceCredentials(pkgDataSourceDs, PKG);
+
+        return ctx;
+    }
+}
@@ -0,0 +1,147 @@
+package com.onevizion.scmdb;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output of a script streamed to the console, to an optional log file and to a fixed size ring buffer
+ * which keeps only the tail of the output. Memory doesn't depend on the output size.
+ * Console lines may be prefixed, so output of scripts executed concurrently in several DBs can be told apart.
+ */
+public class ScriptOutputCapture extends OutputStream {
+    private static final String TRUNCATED_MESSAGE = "...[%d bytes of output truncated]\n";
+
+    private final OutputStream console;
+    private final byte[] consolePrefix;
+    private final OutputStream logFile;
+    private final byte[] tail;
+    private long totalBytes;
+    private boolean consoleLineStart = true;
+
+    /**
+     * @param console stream where output is printed as before, not closed by the capture
+     * @param logFile file for the whole output, may be null
+     * @param limitBytes max size of the kept output tail
+     * @param consolePrefix prefix of each console line, may be null
+     */
+    public ScriptOutputCapture(OutputStream console, File logFile, int limitBytes, String consolePrefix)
+            throws IOException {
+        this.console = console;
+        this.consolePrefix = consolePrefix == null ? null : consolePrefix.getBytes(StandardCharsets.UTF_8);
+        if (logFile == null) {
+            this.logFile = null;
+        } else {
+            logFile.getParentFile().mkdirs();
+            this.logFile = new BufferedOutputStream(new FileOutputStream(logFile));
+        }
+        tail = new byte[limitBytes];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (consolePrefix == null) {
+            console.write(b);
+        } else {
+            writeConsoleLine(new byte[]{(byte) b}, 0, 1);
+        }
+        if (logFile != null) {
+            logFile.write(b);
+        }
+        if (tail.length > 0) {
+            tail[(int) (totalBytes % tail.length)] = (byte) b;
+        }
+        totalBytes++;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        writeConsole(b, off, len);
+        if (logFile != null) {
+            logFile.write(b, off, len);
+        }
+        if (tail.length > 0) {
+            // only last bytes of a big chunk get into the buffer
+            int skipped = Math.max(0, len - tail.length);
+            for (int i = off + skipped; i < off + len; i++) {
+                tail[(int) ((totalBytes + i - off) % tail.length)] = b[i];
+            }
+        }
+        totalBytes += len;
+    }
+
+    private void writeConsole(byte[] b, int off, int len) throws IOException {
+        if (consolePrefix == null) {
+            console.write(b, off, len);
+            return;
+        }
+        int lineOff = off;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+                writeConsoleLine(b, lineOff, i + 1 - lineOff);
+                lineOff = i + 1;
+            }
+        }
+        if (lineOff < off + len) {
+            writeConsoleLine(b, lineOff, off + len - lineOff);
+        }
+    }
+
+    /**
+     * Writes prefix and a line (or its part) by one call, so lines of other streams don't get between them
+     */
+    private void writeConsoleLine(byte[] b, int off, int len) throws IOException {
+        if (consoleLineStart) {
+            byte[] line = new byte[consolePrefix.length + len];
+            System.arraycopy(consolePrefix, 0, line, 0, consolePrefix.length);
+            System.arraycopy(b, off, line, consolePrefix.length, len);
+            console.write(line, 0, line.length);
+        } else {
+            console.write(b, off, len);
+        }
+        consoleLineStart = b[off + len - 1] == '\n';
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        console.flush();
+        if (logFile != null) {
+            logFile.flush();
+        }
+    }
+
+    /**
+     * Flushes output and closes the log file, console stays open
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        console.flush();
+        if (logFile != null) {
+            logFile.close();
+        }
+    }
+
+    /**
+     * @return kept tail of the output, starting with a note about truncated bytes if output didn't fit
+     */
+    public synchronized String getText() {
+        if (totalBytes <= tail.length) {
+            return new String(tail, 0, (int) totalBytes, StandardCharsets.UTF_8);
+        }
+        byte[] ordered = new byte[tail.length];
+        int start = (int) (totalBytes % tail.length);
+        System.arraycopy(tail, start, ordered, 0, tail.length - start);
+        System.arraycopy(tail, 0, ordered, tail.length - start, start);
+
+        // tail may start in the middle of a multibyte character
+        int first = 0;
+        while (first < ordered.length && (ordered[first] & 0xC0) == 0x80) {
+            first++;
+        }
+        return String.format(TRUNCATED_MESSAGE, totalBytes - tail.length + first)
+                + new String(ordered, first, ordered.length - first, StandardCharsets.UTF_8);
+    }
+}
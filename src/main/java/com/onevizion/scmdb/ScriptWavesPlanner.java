@@ -0,0 +1,59 @@
+package com.onevizion.scmdb;
+
+import com.onevizion.scmdb.vo.SqlScript;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits scripts into waves which may be executed one after another, scripts of a wave concurrently.
+ * Scripts with common changed or referenced objects keep their order in different waves.
+ * Script without found objects may do anything, so it gets its own wave after all previous scripts.
+ */
+@Component
+public class ScriptWavesPlanner {
+
+    @Autowired
+    private DbObjectsFinder dbObjectsFinder;
+
+    /**
+     * @param scripts scripts in execution order
+     * @return waves of scripts, scripts of a wave are in execution order
+     */
+    public List<List<SqlScript>> plan(List<SqlScript> scripts) {
+        List<List<SqlScript>> waves = new ArrayList<>();
+        Map<String, Integer> objectLastWaves = new HashMap<>();
+        int minWave = 0;
+
+        for (SqlScript script : scripts) {
+            Set<String> objectNames = dbObjectsFinder.findDbObjectNames(script);
+            int wave;
+            if (objectNames.isEmpty()) {
+                wave = waves.size();
+                minWave = wave + 1;
+            } else {
+                wave = minWave;
+                for (String objectName : objectNames) {
+                    Integer objectLastWave = objectLastWaves.get(objectName);
+                    if (objectLastWave != null) {
+                        wave = Math.max(wave, objectLastWave + 1);
+                    }
+                }
+                for (String objectName : objectNames) {
+                    objectLastWaves.put(objectName, wave);
+                }
+            }
+
+            if (wave == waves.size()) {
+                waves.add(new ArrayList<>());
+            }
+            waves.get(wave).add(script);
+        }
+        return waves;
+    }
+}
@@ -1,13 +1,19 @@
 package com.onevizion.scmdb;
 
+import com.onevizion.scmdb.InvalidObjectsCompiler.InvalidObject;
+import com.onevizion.scmdb.dao.DdlCaptureDao;
 import com.onevizion.scmdb.exception.ScriptExecException;
+import com.onevizion.scmdb.vo.CompileInvalidsMode;
+import com.onevizion.scmdb.vo.CompileScope;
 import com.onevizion.scmdb.vo.DbCnnCredentials;
 import com.onevizion.scmdb.vo.SchemaType;
 import com.onevizion.scmdb.vo.SqlScript;
 import oracle.dbtools.db.DBUtil;
 import oracle.dbtools.raptor.newscriptrunner.ScriptExecutor;
 import oracle.dbtools.raptor.newscriptrunner.ScriptRunnerContext;
+import oracle.ucp.jdbc.PoolDataSource;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.sql.DataSource;
@@ -15,29 +21,50 @@ import java.io.*;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
 import static com.onevizion.scmdb.ColorLogger.Color.YELLOW;
 import static com.onevizion.scmdb.Scmdb.EXIT_CODE_SUCCESS;
-import static com.onevizion.scmdb.vo.SchemaType.OWNER;
+import static com.onevizion.scmdb.vo.SchemaType.*;
 import static com.onevizion.scmdb.vo.ScriptType.COMMIT;
 import static java.time.format.DateTimeFormatter.ISO_TIME;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static oracle.dbtools.raptor.newscriptrunner.ScriptRunnerContext.ERR_ENCOUNTERED;
 import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationHMS;
 
 public class SqlScriptExecutor {
-    private static final String SQL_COMMAND = "@%s %s";
+    private static final String SCRIPT_PATH_PARAM = "&1";
     private static final String CREATE_SQL = "create.sql";
+    private static final String LOG_FILE_EXTENSION = ".log";
     private static final int SCRIPT_EXIT_CODE_ERROR = 1;
     private static final int SCRIPT_EXIT_CODE_SUCCESS = 0;
+    private static final String READ_NLS_PARAMETERS = "select parameter, value from nls_session_parameters" +
+            " order by decode(parameter, 'NLS_LANGUAGE', 0, 'NLS_TERRITORY', 1, 2)";
+    private static final String RESET_PACKAGES = "begin dbms_session.reset_package; end;";
 
     @Autowired
     private AppArguments appArguments;
@@ -57,77 +84,414 @@ public class SqlScriptExecutor {
     @Autowired
     private DataSource pkgDataSource;
 
+    @Autowired
+    private InvalidObjectsCompiler invalidObjectsCompiler;
+
+    @Autowired
+    private DbObjectsFinder dbObjectsFinder;
+
+    private final Map<String, String> resourceTexts = new ConcurrentHashMap<>();
+    private final Set<SchemaType> schemasToCompile = Collections.synchronizedSet(EnumSet.noneOf(SchemaType.class));
+    private final Map<SchemaType, Set<String>> changedObjects = Collections.synchronizedMap(new EnumMap<>(SchemaType.class));
+    private final Map<SchemaType, Session> sessions = Collections.synchronizedMap(new EnumMap<>(SchemaType.class));
+    private final Map<DataSource, Semaphore> sessionPermits = new ConcurrentHashMap<>();
+
     public int execute(SqlScript script) {
         DbCnnCredentials cnnCredentials = appArguments.getDbCredentials(script.getSchemaType());
         logger.info("\nExecuting script [{}] in schema [{}]. Start: {}", GREEN, script.getName(),
                     cnnCredentials.getSchemaWithUrlBeforeDot(), ZonedDateTime.now().format(ISO_TIME));
 
-        File workingDir = script.getFile().getParentFile();
-        File wrapperScriptFile = getTmpWrapperScript(script.getSchemaType(), workingDir);
+        SchemaType schemaType = script.getSchemaType();
+        // compilation concurrent with DDL of other scripts waits for their library cache locks,
+        // so concurrently executed scripts are compiled by the caller after a wave or after all scripts
+        boolean compileAfterScript = appArguments.getCompileInvalidsMode() == CompileInvalidsMode.SCRIPT
+                && !appArguments.isConcurrentExecution();
+        boolean compileWithWrapper = schemaType.isCompileInvalids() && compileAfterScript
+                && appArguments.getCompileScope() == CompileScope.SCHEMA;
+        if (schemaType.isCompileInvalids() && !compileWithWrapper) {
+            if (appArguments.getCompileScope() == CompileScope.SCHEMA) {
+                schemasToCompile.add(schemaType);
+            } else {
+                Set<String> scriptObjects = dbObjectsFinder.findChangedObjectNames(script);
+                if (scriptObjects == null) {
+                    logger.debug("Objects changed by [{}] can't be found, all invalid objects are compiled",
+                                 script.getName());
+                    schemasToCompile.add(schemaType);
+                } else {
+                    changedObjects.computeIfAbsent(schemaType, k -> ConcurrentHashMap.newKeySet()).addAll(scriptObjects);
+                }
+            }
+        }
+        String wrapperScript = getWrapperScript(compileWithWrapper)
+                .replace(SCRIPT_PATH_PARAM, "\"" + script.getFile().getAbsolutePath() + "\"");
 
-        try (Connection connection = getConnection(script.getSchemaType(), cnnCredentials.getSchemaName())) {
-            connection.setAutoCommit(false);
-            ScriptExecutor executor = new ScriptExecutor(connection);
-            ScriptRunnerContext ctx = new ScriptRunnerContext();
+        Instant start = Instant.now();
+        int exitCode;
+        String consolePrefix = appArguments.getTargetName() == null ? null : "[" + appArguments.getTargetName() + "] ";
+        try (ScriptOutputCapture output = new ScriptOutputCapture(System.out, getLogFile(script),
+                                                                  appArguments.getOutputLimitBytes(), consolePrefix)) {
+            exitCode = run(schemaType, cnnCredentials.getSchemaName(), wrapperScript, output);
+            output.flush();
+            script.setOutput(appArguments.getOutputLimitBytes() == 0 ? null : output.getText());
+        } catch (IOException e) {
+            throw new RuntimeException("Can't write output of script [" + script.getName() + "]", e);
+        }
+        if (!compileWithWrapper && compileAfterScript) {
+            compileInvalids();
+        }
+        Instant end = Instant.now();
+        script.setStartTs(Date.from(start));
+        script.setEndTs(Date.from(end));
+        script.setDurationMs(Duration.between(start, end).toMillis());
+        String scriptExecutionTime = formatDurationHMS(script.getDurationMs());
 
-            ctx.setBaseConnection(connection);
-            executor.setScriptRunnerContext(ctx);
-            executor.setStmt(String.format(SQL_COMMAND, wrapperScriptFile.getAbsolutePath(),
-                                           script.getFile().getAbsolutePath()));
+        logger.info("\n[{}] runtime: {}", GREEN, script.getName(), scriptExecutionTime);
+        return exitCode;
+    }
+
+    /**
+     * Compiles invalid objects in schemas where scripts were executed without compilation wrapper:
+     * all invalid objects with {@link CompileScope#SCHEMA} or only changed objects and their dependents
+     * with {@link CompileScope#CHANGED}. Scripts which changed objects can't be found are compiled like
+     * {@link CompileScope#SCHEMA}. Changes of owner scripts are compiled in user and rpt schemas too.
+     * All objects which stay invalid in compiled schemas are reported.
+     */
+    public synchronized void compileInvalids() {
+        // scripts of other schemas may add their changes concurrently, they are compiled next time
+        Set<SchemaType> schemasToCompile;
+        synchronized (this.schemasToCompile) {
+            schemasToCompile = EnumSet.noneOf(SchemaType.class);
+            schemasToCompile.addAll(this.schemasToCompile);
+            this.schemasToCompile.clear();
+        }
+        Map<SchemaType, Set<String>> changedObjects;
+        synchronized (this.changedObjects) {
+            changedObjects = new EnumMap<>(SchemaType.class);
+            changedObjects.putAll(this.changedObjects);
+            this.changedObjects.clear();
+        }
+
+        Map<DataSource, SchemaType> schemaDataSources = new LinkedHashMap<>();
+        // null scope means all invalid objects of the schema
+        Map<DataSource, Set<InvalidObject>> scopes = new HashMap<>();
+        Set<DataSource> dependentDataSources = new HashSet<>();
+
+        for (SchemaType schemaType : schemasToCompile) {
+            schemaDataSources.putIfAbsent(getDataSource(schemaType), schemaType);
+        }
+        for (SchemaType schemaType : schemasToCompile) {
+            for (SchemaType compiledSchemaType : getCompiledSchemaTypes(schemaType)) {
+                if (schemaDataSources.putIfAbsent(getDataSource(compiledSchemaType), compiledSchemaType) == null) {
+                    dependentDataSources.add(getDataSource(compiledSchemaType));
+                }
+            }
+        }
+
+        Set<DataSource> wholeDataSources = new HashSet<>(schemaDataSources.keySet());
+
+        changedObjects.forEach((schemaType, objects) -> {
+            String ownerName = appArguments.getDbCredentials(schemaType).getSchemaName();
+            // objects of other schemas may depend on changed objects through other objects of the owner
+            Collection<String> ownerObjects = objects;
+            if (getCompiledSchemaTypes(schemaType).size() > 1) {
+                try {
+                    ownerObjects = invalidObjectsCompiler.findDependentNames(getDataSource(schemaType), objects);
+                } catch (RuntimeException e) {
+                    logCompilationError(schemaType, false, e);
+                }
+            }
+            for (SchemaType compiledSchemaType : getCompiledSchemaTypes(schemaType)) {
+                DataSource schemaDataSource = getDataSource(compiledSchemaType);
+                if (wholeDataSources.contains(schemaDataSource)) {
+                    continue;
+                }
+                Set<InvalidObject> invalidObjects;
+                try {
+                    invalidObjects = invalidObjectsCompiler.findInvalidDependents(schemaDataSource, ownerName,
+                            compiledSchemaType == schemaType ? objects : ownerObjects);
+                } catch (RuntimeException e) {
+                    logCompilationError(compiledSchemaType, compiledSchemaType != schemaType, e);
+                    continue;
+                }
+                // schema is compiled even with empty scope to report its invalid objects
+                schemaDataSources.putIfAbsent(schemaDataSource, compiledSchemaType);
+                if (invalidObjects == null) {
+                    wholeDataSources.add(schemaDataSource);
+                    scopes.remove(schemaDataSource);
+                } else {
+                    scopes.computeIfAbsent(schemaDataSource, k -> new LinkedHashSet<>()).addAll(invalidObjects);
+                }
+                if (!changedObjects.containsKey(compiledSchemaType)) {
+                    dependentDataSources.add(schemaDataSource);
+                }
+            }
+        });
+
+        if (schemaDataSources.isEmpty()) {
+            return;
+        }
+        // compiler takes its own sessions from the same pools
+        closeSessions();
+
+        schemaDataSources.forEach((dataSource, schemaType) -> {
+            DbCnnCredentials cnnCredentials = appArguments.getDbCredentials(schemaType);
+            logger.info("\nCompiling invalid objects in schema [{}]. Start: {}", GREEN,
+                        cnnCredentials.getSchemaWithUrlBeforeDot(), ZonedDateTime.now().format(ISO_TIME));
 
             Instant start = Instant.now();
-            executor.run();
-            String scriptExecutionTime = formatDurationHMS(Duration.between(start, Instant.now()).toMillis());
+            try {
+                invalidObjectsCompiler.compileInvalids(dataSource, cnnCredentials.getSchemaName(), scopes.get(dataSource));
+            } catch (RuntimeException e) {
+                logCompilationError(schemaType, dependentDataSources.contains(dataSource), e);
+                return;
+            }
+            String compilationTime = formatDurationHMS(Duration.between(start, Instant.now()).toMillis());
+
+            logger.info("Compilation runtime: {}", GREEN, compilationTime);
+        });
+    }
+
+    /**
+     * Objects of user and rpt schemas depend on owner objects, so they are compiled after owner scripts too
+     */
+    private List<SchemaType> getCompiledSchemaTypes(SchemaType schemaType) {
+        return schemaType == OWNER ? asList(OWNER, USER, RPT) : singletonList(schemaType);
+    }
 
-            logger.info("\n[{}] runtime: {}", GREEN, script.getName(), scriptExecutionTime);
+    private void logCompilationError(SchemaType schemaType, boolean dependentSchema, RuntimeException e) {
+        String schemaName = appArguments.getDbCredentials(schemaType).getSchemaName();
+        if (dependentSchema) {
+            // user and rpt schemas may not exist
+            logger.debug("Can't compile invalid objects in schema [{}]: {}", schemaName, e.getMessage());
+        } else {
+            // it's called after failed scripts too, their error shouldn't be hidden
+            logger.error("Can't compile invalid objects in schema [{}].", schemaName, e);
+        }
+    }
+
+    /**
+     * @return file for the whole output of the script in --log-dir, null if the option isn't used
+     */
+    private File getLogFile(SqlScript script) {
+        if (appArguments.getLogDirectory() == null) {
+            return null;
+        }
+        File logDirectory = appArguments.getLogDirectory();
+        if (appArguments.getTargetName() != null) {
+            logDirectory = new File(logDirectory, appArguments.getTargetName());
+        }
+        return new File(logDirectory, script.getName() + LOG_FILE_EXTENSION);
+    }
 
-            return (boolean) ctx.getProperty(ERR_ENCOUNTERED) ? SCRIPT_EXIT_CODE_ERROR : SCRIPT_EXIT_CODE_SUCCESS;
+    private int run(SchemaType schemaType, String schemaName, String stmt, OutputStream output) {
+        Semaphore schemaSessionPermits = getSessionPermits(schemaType);
+        schemaSessionPermits.acquireUninterruptibly();
+        Session session = null;
+        try {
+            session = openSession(schemaType, schemaName);
+            // SQLcl settings like "set define off" of the previous script shouldn't leak into this one
+            ScriptRunnerContext ctx = new ScriptRunnerContext();
+            ctx.setBaseConnection(session.connection);
+            ScriptExecutor executor = new ScriptExecutor(session.connection);
+            executor.setScriptRunnerContext(ctx);
+            executor.setStmt(stmt);
+            BufferedOutputStream bufferedOutput = new LineFlushingOutputStream(output);
+            executor.setOut(bufferedOutput);
+            executor.run();
+            bufferedOutput.flush();
+
+            boolean errorEncountered = (boolean) ctx.getProperty(ERR_ENCOUNTERED);
+            if (errorEncountered) {
+                // failed script may leave the session in any state
+                closeSession(schemaType, session);
+            } else {
+                releaseSession(schemaType, session);
+            }
+            return errorEncountered ? SCRIPT_EXIT_CODE_ERROR : SCRIPT_EXIT_CODE_SUCCESS;
         } catch (SQLException e) {
             logger.error("Error during connection DB.", e);
+            closeSession(schemaType, session);
+            return SCRIPT_EXIT_CODE_ERROR;
+        } catch (IOException e) {
+            logger.error("Can't write script output.", e);
+            closeSession(schemaType, session);
             return SCRIPT_EXIT_CODE_ERROR;
         } finally {
-            wrapperScriptFile.delete();
+            schemaSessionPermits.release();
         }
     }
 
-    private File getTmpWrapperScript(SchemaType schemaType, File workingDir) {
-        ClassLoader classLoader = getClass().getClassLoader();
-        URL wrapperScript;
-        if (schemaType.isCompileInvalids()) {
+    /**
+     * Limits scripts executed concurrently in a schema by the pool size.
+     * One connection of the pool is left for the kept session or scmdb own queries.
+     */
+    private Semaphore getSessionPermits(SchemaType schemaType) {
+        return sessionPermits.computeIfAbsent(getDataSource(schemaType), schemaDataSource -> {
+            int maxSessions = Integer.MAX_VALUE;
+            if (schemaDataSource instanceof PoolDataSource) {
+                maxSessions = Math.max(1, ((PoolDataSource) schemaDataSource).getMaxPoolSize() - 1);
+            }
+            return new Semaphore(maxSessions);
+        });
+    }
+
+    /**
+     * Returns session of the schema kept from the previous script when --reuse-sessions option is used
+     * or opens a new one. Kept session is restored to the state it was opened with.
+     */
+    private Session openSession(SchemaType schemaType, String schemaName) throws SQLException {
+        Session session = sessions.remove(schemaType);
+        if (session != null) {
+            try {
+                resetSession(session, schemaName);
+                return session;
+            } catch (SQLException e) {
+                logger.debug("Can't reset session of [{}] schema, new one is opened: {}", schemaType, e.getMessage());
+                closeSession(schemaType, session);
+            }
+        }
+
+        Connection connection = getConnection(schemaType, schemaName);
+        connection.setAutoCommit(false);
+        Map<String, String> nlsParameters = new LinkedHashMap<>();
+        if (appArguments.isReuseSessions()) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(READ_NLS_PARAMETERS)) {
+                while (rs.next()) {
+                    nlsParameters.put(rs.getString("parameter"), rs.getString("value"));
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return new Session(connection, nlsParameters);
+    }
+
+    /**
+     * Resets package state, current schema and NLS settings the previous script might change
+     */
+    private void resetSession(Session session, String schemaName) throws SQLException {
+        StringBuilder alterSession = new StringBuilder("alter session set current_schema = \"")
+                .append(schemaName.toUpperCase()).append('"');
+        session.nlsParameters.forEach((parameter, value) -> {
+            alterSession.append(' ').append(parameter).append(" = ");
+            if (value.equals("TRUE") || value.equals("FALSE")) {
+                alterSession.append(value);
+            } else {
+                alterSession.append('\'').append(value.replace("'", "''")).append('\'');
+            }
+        });
+        try (Statement statement = session.connection.createStatement()) {
+            statement.execute(RESET_PACKAGES);
+            statement.execute(alterSession.toString());
+        }
+    }
+
+    /**
+     * Keeps session for the next script with --reuse-sessions option or closes it
+     *
+     * @throws SQLException if changes left uncommitted by the script can't be committed
+     */
+    private void releaseSession(SchemaType schemaType, Session session) throws SQLException {
+        if (appArguments.isReuseSessions()) {
+            // closed connection commits changes left uncommitted by the script, kept one does the same
+            session.connection.commit();
+        }
+        // concurrent scripts of the schema may have their own sessions, only one of them is kept
+        if (!appArguments.isReuseSessions() || sessions.putIfAbsent(schemaType, session) != null) {
+            closeSession(schemaType, session);
+        }
+    }
+
+    private void closeSession(SchemaType schemaType, Session session) {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.connection.close();
+        } catch (SQLException e) {
+            logger.debug("Can't close connection to [{}] schema: {}", schemaType, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes sessions kept for reuse
+     */
+    public void closeSessions() {
+        synchronized (sessions) {
+            sessions.forEach(this::closeSession);
+            sessions.clear();
+        }
+    }
+
+    /**
+     * Opens connections of additional schemas in advance. Not all of them are required to exist,
+     * so connection errors are only logged here and reported when a script is executed in the schema.
+     */
+    public void warmUpConnections() {
+        for (SchemaType schemaType : asList(USER, RPT, PKG)) {
+            try (Connection ignored = getConnection(schemaType, appArguments.getDbCredentials(schemaType).getSchemaName())) {
+                logger.debug("Connection to [{}] schema is established", schemaType);
+            } catch (RuntimeException | SQLException e) {
+                logger.debug("Can't connect to [{}] schema: {}", schemaType, e.getMessage());
+            }
+        }
+    }
+
+    private String getWrapperScript(boolean compileInvalids) {
+        String wrapperScriptName;
+        if (compileInvalids) {
             if (appArguments.isIgnoreErrors()) {
-                wrapperScript = classLoader.getResource("compile_invalids_wrapper_not_fail_on_error.sql");
+                wrapperScriptName = "compile_invalids_wrapper_not_fail_on_error.sql";
             } else {
-                wrapperScript = classLoader.getResource("compile_invalids_wrapper_fail_on_error.sql");
+                wrapperScriptName = "compile_invalids_wrapper_fail_on_error.sql";
             }
         } else {
             if (appArguments.isIgnoreErrors()) {
-                wrapperScript = classLoader.getResource("script_wrapper_not_fail_on_error.sql");
+                wrapperScriptName = "script_wrapper_not_fail_on_error.sql";
             } else {
-                wrapperScript = classLoader.getResource("script_wrapper_fail_on_error.sql");
+                wrapperScriptName = "script_wrapper_fail_on_error.sql";
             }
         }
 
-        File tmpFile = new File(workingDir.getAbsolutePath() + File.separator + "tmp.sql");
-
-        try {
-            FileUtils.copyURLToFile(wrapperScript, tmpFile);
-        } catch (IOException e) {
-            throw new RuntimeException("Can't copy tmp wrapper file.", e);
-        }
+        return getResourceText(wrapperScriptName);
+    }
 
-        return tmpFile;
+    /**
+     * Script text from the classpath, it's read once and then kept in memory
+     */
+    private String getResourceText(String resourceName) {
+        return resourceTexts.computeIfAbsent(resourceName, name -> {
+            try {
+                return IOUtils.toString(getClass().getClassLoader().getResource(name), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't read script [" + name + "].", e);
+            }
+        });
     }
 
     public void createDbScriptTable() {
+        executeResourceScript(CREATE_SQL);
+    }
+
+    /**
+     * Creates db_ddl_event table and the trigger which logs DDL changes of the owner schema into it
+     */
+    public void installDdlCapture() {
+        executeResourceScript(DdlCaptureDao.CAPTURE_SQL);
+    }
+
+    private void executeResourceScript(String resourceName) {
         File scriptsDirectory = appArguments.getScriptsDirectory();
-        String tmpFileName = new Date().getTime() + CREATE_SQL;
+        String tmpFileName = new Date().getTime() + resourceName;
         String tmpFilePath = scriptsDirectory.getAbsolutePath() + File.separator + tmpFileName;
         File tmpFile = new File(tmpFilePath);
-        URL resource = getClass().getClassLoader().getResource(CREATE_SQL);
+        URL resource = getClass().getClassLoader().getResource(resourceName);
         try {
             FileUtils.copyURLToFile(resource, tmpFile);
         } catch (IOException e) {
-            throw new RuntimeException("Can't copy " + CREATE_SQL + " file.", e);
+            throw new RuntimeException("Can't copy " + resourceName + " file.", e);
         }
 
         SqlScript sqlScript = new SqlScript();
@@ -139,23 +503,65 @@ public class SqlScriptExecutor {
         int exitCode = execute(sqlScript);
         tmpFile.delete();
         if (exitCode != EXIT_CODE_SUCCESS) {
-            logger.error("Please execute script \"src/main/resources/create.sql\" manually");
+            logger.error("Please execute script \"src/main/resources/{}\" manually", resourceName);
             throw new ScriptExecException("Can't create DB objects used by SCMDB.");
         }
     }
 
+    private DataSource getDataSource(SchemaType schemaType) {
+        switch (schemaType) {
+            case USER: return userDataSource;
+            case RPT: return rptDataSource;
+            case PKG: return pkgDataSource;
+            default: return dataSource;
+        }
+    }
+
     private Connection getConnection(SchemaType schemaType, String schemaName) {
         try {
-            switch (schemaType) {
-                case USER: return userDataSource.getConnection();
-                case RPT: return rptDataSource.getConnection();
-                case PKG: return pkgDataSource.getConnection();
-                default: return dataSource.getConnection();
-            }
+            return getDataSource(schemaType).getConnection();
         } catch (SQLException exception) {
             throw new RuntimeException(MessageFormat.format("Error during connection to the schema [{}].", schemaName),
                                        exception);
         }
     }
 
+    private static class Session {
+        private final Connection connection;
+        private final Map<String, String> nlsParameters;
+
+        Session(Connection connection, Map<String, String> nlsParameters) {
+            this.connection = connection;
+            this.nlsParameters = nlsParameters;
+        }
+    }
+
+    /**
+     * Buffered stream required by {@link ScriptExecutor} which passes output on after each line,
+     * so output of a long script is printed while it runs
+     */
+    private static class LineFlushingOutputStream extends BufferedOutputStream {
+        LineFlushingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            if (b == '\n') {
+                flush();
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    flush();
+                    return;
+                }
+            }
+        }
+    }
 }
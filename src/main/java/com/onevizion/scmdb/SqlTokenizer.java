@@ -0,0 +1,143 @@
+package com.onevizion.scmdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits SQL and PL/SQL text into lower case words and punctuation chars in one pass.
+ * Comments and whitespace are skipped, quoted identifiers are returned without quotes.
+ * Text of string literals (including q'[...]' ones) is tokenized too, so SQL executed dynamically is visible.
+ */
+final class SqlTokenizer {
+    private final String text;
+    private final List<String> tokens;
+    private int pos;
+
+    private SqlTokenizer(String text, List<String> tokens) {
+        this.text = text;
+        this.tokens = tokens;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        new SqlTokenizer(text, tokens).run();
+        return tokens;
+    }
+
+    static boolean isWord(String token) {
+        return token.length() > 1 || isIdentifierChar(token.charAt(0));
+    }
+
+    private void run() {
+        int length = text.length();
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '-' && next() == '-') {
+                skipUntil("\n");
+            } else if (c == '/' && next() == '*') {
+                pos += 2;
+                skipUntil("*/");
+            } else if (c == '\'') {
+                pos++;
+                readLiteral();
+            } else if (c == '"') {
+                pos++;
+                readQuotedIdentifier();
+            } else if (isIdentifierChar(c)) {
+                readWord();
+            } else {
+                tokens.add(String.valueOf(c));
+                pos++;
+            }
+        }
+    }
+
+    private void readWord() {
+        int start = pos;
+        while (pos < text.length() && isIdentifierChar(text.charAt(pos))) {
+            pos++;
+        }
+        String word = text.substring(start, pos).toLowerCase();
+        if (pos < text.length() - 1 && text.charAt(pos) == '\'' && (word.equals("q") || word.equals("nq"))) {
+            pos++;
+            readQuoteLiteral();
+        } else {
+            tokens.add(word);
+        }
+    }
+
+    /**
+     * Reads literal with doubled quotes inside, position is after the opening quote
+     */
+    private void readLiteral() {
+        StringBuilder literal = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c != '\'') {
+                literal.append(c);
+            } else if (pos < text.length() && text.charAt(pos) == '\'') {
+                literal.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        new SqlTokenizer(literal.toString(), tokens).run();
+    }
+
+    /**
+     * Reads q'Xtext X' literal, position is at the opening delimiter X
+     */
+    private void readQuoteLiteral() {
+        char delimiter = text.charAt(pos++);
+        String end = getClosingDelimiter(delimiter) + "'";
+        int index = text.indexOf(end, pos);
+        int textEnd = index < 0 ? text.length() : index;
+        new SqlTokenizer(text.substring(pos, textEnd), tokens).run();
+        pos = index < 0 ? text.length() : index + end.length();
+    }
+
+    private void readQuotedIdentifier() {
+        int end = text.indexOf('"', pos);
+        if (end < 0) {
+            end = text.length();
+        }
+        if (end > pos) {
+            tokens.add(text.substring(pos, end).toLowerCase());
+        }
+        pos = end + 1;
+    }
+
+    /**
+     * Moves position after the end string or to the end of text
+     */
+    private void skipUntil(String end) {
+        int index = text.indexOf(end, pos);
+        pos = index < 0 ? text.length() : index + end.length();
+    }
+
+    private char next() {
+        return pos + 1 < text.length() ? text.charAt(pos + 1) : 0;
+    }
+
+    private static char getClosingDelimiter(char delimiter) {
+        switch (delimiter) {
+            case '[':
+                return ']';
+            case '(':
+                return ')';
+            case '{':
+                return '}';
+            case '<':
+                return '>';
+            default:
+                return delimiter;
+        }
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+}
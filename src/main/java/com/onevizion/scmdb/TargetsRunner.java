@@ -0,0 +1,275 @@
+package com.onevizion.scmdb;
+
+import com.onevizion.scmdb.exception.ScmdbException;
+import com.onevizion.scmdb.facade.DbScriptFacade;
+import com.onevizion.scmdb.facade.ScriptHashCache;
+import com.onevizion.scmdb.facade.ScriptRuntimeHistory;
+import com.onevizion.scmdb.facade.ScriptsDirScanner;
+import com.onevizion.scmdb.vo.DbCnnCredentials;
+import com.onevizion.scmdb.vo.ScriptsDrift;
+import com.onevizion.scmdb.vo.SqlScript;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.onevizion.scmdb.ColorLogger.Color.GREEN;
+import static com.onevizion.scmdb.ColorLogger.Color.YELLOW;
+import static com.onevizion.scmdb.Scmdb.EXIT_CODE_ERROR;
+import static com.onevizion.scmdb.Scmdb.EXIT_CODE_SUCCESS;
+import static com.onevizion.scmdb.vo.SchemaType.OWNER;
+import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationHMS;
+
+/**
+ * Updates several DBs listed in --targets file by one run.
+ * Scripts directory is scanned and hashed once, then each target is updated concurrently by {@link DbManager#updateDb()}
+ * of its own Spring context with its own connection pools.
+ * With --drift-report targets are only compared with the scripts directory by {@link DbManager#readDrift()}.
+ */
+public class TargetsRunner {
+    private static final String TARGET_HEADER = "Target";
+
+    private final AppArguments appArguments;
+    private ColorLogger logger;
+
+    public TargetsRunner(AppArguments appArguments) {
+        this.appArguments = appArguments;
+    }
+
+    /**
+     * @return exit code, error if update of any target failed
+     */
+    public int run() throws IOException {
+        AnnotationConfigApplicationContext parentCtx = new AnnotationConfigApplicationContext();
+        parentCtx.getBeanFactory().registerSingleton("appArguments", appArguments);
+        parentCtx.register(ColorLogger.class);
+        parentCtx.refresh();
+        logger = parentCtx.getBean(ColorLogger.class);
+
+        Map<String, String> targets = readTargets();
+        ScriptHashCache hashCache = ScriptHashCache.load(appArguments.getCacheDirectory());
+        ScriptRuntimeHistory runtimeHistory = ScriptRuntimeHistory.load(appArguments.getCacheDirectory());
+        ScriptsDirScanner scanner = new ScriptsDirScanner(appArguments.getScriptsDirectory(),
+                                                          appArguments.getScanThreads(), hashCache);
+        List<SqlScript> scripts = scanner.scan(appArguments.isReadAllFilesContent());
+        if (appArguments.isDriftReport()) {
+            logger.info("Reading drift of {} targets, up to {} at once", GREEN, targets.size(),
+                        appArguments.getTargetThreads());
+        } else {
+            logger.info("Updating {} targets, up to {} at once", GREEN, targets.size(),
+                        appArguments.getTargetThreads());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(appArguments.getTargetThreads(),
+                                                                         Math.max(1, targets.size())));
+        Map<String, Future<TargetResult>> results = new LinkedHashMap<>();
+        try {
+            if (appArguments.isPlan()) {
+                readDbRuntimes(targets, parentCtx, runtimeHistory, executor);
+            }
+            targets.forEach((targetName, connectionString) -> results.put(targetName, executor.submit(
+                    () -> updateTarget(targetName, connectionString, parentCtx, hashCache, runtimeHistory, scripts))));
+
+            if (appArguments.isDriftReport()) {
+                return printDriftReport(results);
+            }
+
+            int exitCode = EXIT_CODE_SUCCESS;
+            logger.info("\nSummary:", GREEN);
+            for (Map.Entry<String, Future<TargetResult>> result : results.entrySet()) {
+                TargetResult targetResult = getResult(result.getValue());
+                if (targetResult.error == null) {
+                    logger.info("[{}] OK, runtime: {}", GREEN, result.getKey(), targetResult.runtime);
+                } else {
+                    exitCode = EXIT_CODE_ERROR;
+                    logger.error("[{}] FAILED, runtime: {}. {}", result.getKey(), targetResult.runtime,
+                                 targetResult.error);
+                }
+            }
+            return exitCode;
+        } finally {
+            executor.shutdown();
+            saveHashCache(hashCache);
+            saveRuntimeHistory(runtimeHistory);
+        }
+    }
+
+    /**
+     * Prints matrix of new, changed and deleted scripts of each target and their names
+     *
+     * @return exit code, error if drift of any target wasn't read
+     */
+    private int printDriftReport(Map<String, Future<TargetResult>> results) {
+        int nameWidth = Math.max(TARGET_HEADER.length(),
+                                 results.keySet().stream().mapToInt(String::length).max().orElse(0));
+        String rowFormat = "%-" + nameWidth + "s %8s %8s %8s  %s";
+        int exitCode = EXIT_CODE_SUCCESS;
+        List<String> details = new ArrayList<>();
+
+        logger.info("\nDrift report:", GREEN);
+        logger.info(String.format(rowFormat, TARGET_HEADER, "New", "Changed", "Deleted", "State"));
+        for (Map.Entry<String, Future<TargetResult>> result : results.entrySet()) {
+            String targetName = result.getKey();
+            TargetResult targetResult = getResult(result.getValue());
+            ScriptsDrift drift = targetResult.drift;
+            if (targetResult.error != null) {
+                exitCode = EXIT_CODE_ERROR;
+                logger.error(String.format(rowFormat, targetName, "-", "-", "-", "ERROR: " + targetResult.error));
+            } else if (!drift.isInitialized()) {
+                logger.warn(String.format(rowFormat, targetName, "-", "-", "-", "SCMDB wasn't run"), YELLOW);
+            } else {
+                List<String> changedScripts = drift.getChangedScripts();
+                boolean upToDate = drift.getNewScripts().isEmpty() && drift.getDeletedScripts().isEmpty()
+                        && (changedScripts == null || changedScripts.isEmpty());
+                String row = String.format(rowFormat, targetName, drift.getNewScripts().size(),
+                                           changedScripts == null ? "-" : changedScripts.size(),
+                                           drift.getDeletedScripts().size(), upToDate ? "up to date" : "drift");
+                if (upToDate) {
+                    logger.info(row, GREEN);
+                } else {
+                    logger.warn(row, YELLOW);
+                }
+                addDriftDetails(details, targetName, "new", drift.getNewScripts());
+                addDriftDetails(details, targetName, "changed", changedScripts);
+                addDriftDetails(details, targetName, "deleted", drift.getDeletedScripts());
+            }
+        }
+        if (!details.isEmpty()) {
+            logger.info("");
+            details.forEach(logger::info);
+        }
+        return exitCode;
+    }
+
+    private void addDriftDetails(List<String> details, String targetName, String kind, List<String> scriptNames) {
+        if (scriptNames != null && !scriptNames.isEmpty()) {
+            details.add("[" + targetName + "] " + kind + ": " + String.join(", ", scriptNames));
+        }
+    }
+
+    /**
+     * Reads owner schema connection strings, one per line. Empty lines and lines starting with # are skipped.
+     * Without --targets the only target is the DB of --owner-schema.
+     *
+     * @return connection strings by target names
+     */
+    private Map<String, String> readTargets() throws IOException {
+        Map<String, String> targets = new LinkedHashMap<>();
+        if (appArguments.getTargetsFile() == null) {
+            DbCnnCredentials ownerCredentials = appArguments.getDbCredentials(OWNER);
+            targets.put(ownerCredentials.getSchemaWithUrlBeforeDot(), ownerCredentials.getConnectionString());
+            return targets;
+        }
+        for (String line : Files.readAllLines(appArguments.getTargetsFile().toPath(), StandardCharsets.UTF_8)) {
+            String connectionString = line.trim();
+            if (connectionString.isEmpty() || connectionString.startsWith("#")) {
+                continue;
+            }
+            String targetName = DbCnnCredentials.create(connectionString).getSchemaWithUrlBeforeDot();
+            if (targets.containsKey(targetName)) {
+                targetName = targetName + "_" + (targets.size() + 1);
+            }
+            targets.put(targetName, connectionString);
+        }
+        if (targets.isEmpty()) {
+            throw new ScmdbException("No targets in [" + appArguments.getTargetsFile().getAbsolutePath() + "].");
+        }
+        return targets;
+    }
+
+    private TargetResult updateTarget(String targetName, String connectionString,
+                                      AnnotationConfigApplicationContext parentCtx, ScriptHashCache hashCache,
+                                      ScriptRuntimeHistory runtimeHistory, List<SqlScript> scripts) {
+        Instant start = Instant.now();
+        String error = null;
+        ScriptsDrift drift = null;
+        AppArguments targetArguments = appArguments.createForTarget(connectionString, targetName);
+        try (ClassPathXmlApplicationContext ctx = Scmdb.createContext("classpath:db-beans.xml", targetArguments,
+                                                                      parentCtx)) {
+            ctx.getBean(DbScriptFacade.class).setScannedScripts(hashCache, runtimeHistory, scripts);
+            if (appArguments.isDriftReport()) {
+                drift = ctx.getBean(DbManager.class).readDrift();
+            } else {
+                ctx.getBean(DbManager.class).updateDb();
+            }
+        } catch (ScmdbException e) {
+            error = e.getMessage();
+        } catch (Exception e) {
+            logger.error("[{}] Scmdb internal error", targetName, e);
+            error = "Scmdb internal error: " + e.getMessage();
+        }
+        return new TargetResult(formatDurationHMS(Duration.between(start, Instant.now()).toMillis()), error, drift);
+    }
+
+    /**
+     * Reads runtimes of scripts executed in all targets before their plans are printed,
+     * so a script executed in any target predicts its runtime in others
+     */
+    private void readDbRuntimes(Map<String, String> targets, AnnotationConfigApplicationContext parentCtx,
+                                ScriptRuntimeHistory runtimeHistory, ExecutorService executor) {
+        List<Future<?>> reads = new ArrayList<>();
+        targets.forEach((targetName, connectionString) -> reads.add(executor.submit(() -> {
+            AppArguments targetArguments = appArguments.createForTarget(connectionString, targetName);
+            try (ClassPathXmlApplicationContext ctx = Scmdb.createContext("classpath:db-beans.xml", targetArguments,
+                                                                          parentCtx)) {
+                ctx.getBean(DbScriptFacade.class).readDbRuntimes(runtimeHistory);
+            } catch (Exception e) {
+                // error of the target is reported when its plan is printed
+            }
+        })));
+        reads.forEach(this::getResult);
+    }
+
+    private <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScmdbException("Update of targets is interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void saveHashCache(ScriptHashCache hashCache) {
+        try {
+            hashCache.save();
+        } catch (IOException e) {
+            logger.warn("Can't save script hash cache [{}]: {}", YELLOW, hashCache.getCacheFile().getAbsolutePath(),
+                        e.getMessage());
+        }
+    }
+
+    private void saveRuntimeHistory(ScriptRuntimeHistory runtimeHistory) {
+        try {
+            runtimeHistory.save();
+        } catch (IOException e) {
+            logger.warn("Can't save script runtime history [{}]: {}", YELLOW,
+                        runtimeHistory.getHistoryFile().getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    private static class TargetResult {
+        private final String runtime;
+        private final String error;
+        private final ScriptsDrift drift;
+
+        TargetResult(String runtime, String error, ScriptsDrift drift) {
+            this.runtime = runtime;
+            this.error = error;
+            this.drift = drift;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.onevizion.scmdb.dao;
 
+import oracle.jdbc.OracleConnection;
+import org.apache.commons.collections4.ListUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.List;
 import java.util.Map;
 
@@ -17,49 +24,35 @@ public class AbstractDaoOra {
     @Autowired
     protected NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
-    private final static int LIMIT_IN_STATEMENT = 1000;
+    private final static String NUMBER_LIST_TYPE = "SYS.ODCINUMBERLIST";
 
-    protected <T> String appendIn(String columnName, List<T> list, Map<String, Object> outSqlParams) {
-        int countParams = list.size() / LIMIT_IN_STATEMENT;
-        int residue = list.size() % LIMIT_IN_STATEMENT;
+    /**
+     * Max size of SYS.ODCINUMBERLIST varray
+     */
+    private final static int MAX_COLLECTION_SIZE = 32767;
+
+    /**
+     * Splits values into chunks which fit into one collection bound by {@link #appendInNumbers}
+     */
+    protected <T extends Number> List<List<T>> splitForInNumbers(List<T> list) {
+        return ListUtils.partition(list, MAX_COLLECTION_SIZE);
+    }
+
+    /**
+     * Binds the list as one Oracle collection. SQL text doesn't depend on the list size,
+     * so the same cursor is used for any number of values. Longer lists should be split by {@link #splitForInNumbers}.
+     *
+     * @return condition like " (column_name in (select column_value from table(:p_column_name))) "
+     */
+    protected String appendInNumbers(String columnName, List<? extends Number> list, Map<String, Object> outSqlParams) {
+        Object[] values = list.toArray();
         String paramName = "p_" + columnName;
-        String prefix = "";
-        StringBuilder sql = new StringBuilder(" (");
-        for (int i = 0; i < countParams; i++) {
-            sql.append(prefix);
-            sql.append(" ");
-            sql.append(columnName);
-            sql.append(" in ");
-            sql.append("(:");
-            sql.append(paramName);
-            sql.append(i);
-            sql.append(") ");
-            outSqlParams.put(paramName + i, list.subList(i * LIMIT_IN_STATEMENT, i * LIMIT_IN_STATEMENT + LIMIT_IN_STATEMENT));
-            prefix = " or ";
-        }
-        if (countParams == 0) {
-            if (list.isEmpty()) {
-                list = null;
+        outSqlParams.put(paramName, new SqlParameterValue(Types.ARRAY, NUMBER_LIST_TYPE, new AbstractSqlTypeValue() {
+            @Override
+            protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+                return connection.unwrap(OracleConnection.class).createOracleArray(typeName, values);
             }
-            sql.append(" ");
-            sql.append(columnName);
-            sql.append(" in ");
-            sql.append("(:");
-            sql.append(paramName);
-            sql.append(")) ");
-            outSqlParams.put(paramName, list);
-        } else if (residue != 0) {
-            sql.append(" or ");
-            sql.append(columnName);
-            sql.append(" in ");
-            sql.append("(:");
-            sql.append(paramName);
-            sql.append(countParams);
-            sql.append(")) ");
-            outSqlParams.put(paramName + countParams, list.subList(countParams * LIMIT_IN_STATEMENT, list.size()));
-        } else {
-            sql.append(") ");
-        }
-        return sql.toString();
+        }));
+        return " (" + columnName + " in (select column_value from table(:" + paramName + "))) ";
     }
 }
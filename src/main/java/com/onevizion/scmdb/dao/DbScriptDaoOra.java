@@ -1,9 +1,13 @@
 package com.onevizion.scmdb.dao;
 
 import com.onevizion.scmdb.exception.DbConnectionException;
+import com.onevizion.scmdb.vo.ScriptRuntime;
 import com.onevizion.scmdb.vo.ScriptStatus;
 import com.onevizion.scmdb.vo.ScriptType;
 import com.onevizion.scmdb.vo.SqlScript;
+import org.apache.commons.io.IOUtils;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
@@ -11,11 +15,10 @@ import org.springframework.jdbc.core.namedparam.SqlParameterSourceUtils;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Collection;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,18 +27,34 @@ import java.util.Map;
 public class DbScriptDaoOra extends AbstractDaoOra {
 
     private static final String UPDATE = "update db_script set file_hash = :fileHash,text = :text,ts = :ts where db_script_id = :id";
-    private static final String CREATE = "insert into db_script (name,file_hash,text,ts,output,type,status) values (:name,:fileHash,:text,:ts,:output,:type.id,:status.id)";
+    private static final String UPDATE_WITHOUT_TEXT = "update db_script set file_hash = :fileHash,text = null,ts = :ts where db_script_id = :id";
+    private static final String CREATE = "insert into db_script (name,file_hash,text,ts,output,type,status,start_ts,end_ts,duration_ms)" +
+            " values (:name,:fileHash,:text,:ts,:output,:type.id,:status.id,:startTs,:endTs,:durationMs)";
+    private static final String CREATE_WITHOUT_TEXT = "insert into db_script (name,file_hash,ts,output,type,status,start_ts,end_ts,duration_ms)" +
+            " values (:name,:fileHash,:ts,:output,:type.id,:status.id,:startTs,:endTs,:durationMs)";
+    private static final String ADD_EXEC_COLUMNS = "alter table db_script add (start_ts date null, end_ts date null, duration_ms number null)";
+    private static final String CREATE_WITH_ID = "insert into db_script (db_script_id,name,file_hash,text,ts,type,status) values (?,?,?,?,?,?,?)";
+    private static final String READ_NEXT_IDS = "select seq_db_script_id.nextval from dual connect by level <= ?";
     private static final String DELETE = "delete from db_script where db_script_id = ?";
-    private static final String READ_ALL = "select * from db_script";
+    private static final String READ_ALL = "select db_script_id, name, file_hash, type, status from db_script";
+    private static final String READ_TEXTS_BY_IDS = "select db_script_id, text from db_script where ";
+    private static final String READ_TEXTS_WITH_COMPRESSED_BY_IDS = "select s.db_script_id, s.text, t.text compressed_text" +
+            " from db_script s left join db_script_text t on t.file_hash = s.file_hash where ";
     private static final String READ_COUNT = "select count(*) from db_script";
+    private static final String READ_RUNTIMES = "select file_hash, count(*) runs, round(avg(duration_ms)) avg_ms" +
+            " from db_script where status = ? and duration_ms is not null and file_hash is not null group by file_hash";
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * Texts of bigger scripts are bound as character streams, smaller ones are bound as strings
+     */
+    private static final long STREAMED_TEXT_MIN_SIZE = 32 * 1024;
 
     private final RowMapper<SqlScript> rowMapper = (rs, rowNum) -> {
         SqlScript script = new SqlScript();
         script.setId(rs.getLong("db_script_id"));
         script.setName(rs.getString("name"));
         script.setFileHash(rs.getString("file_hash"));
-        script.setText(rs.getString("text"));
-        script.setTs(rs.getDate("ts"));
         script.setType(ScriptType.getById(rs.getLong("type")));
         script.setStatus(ScriptStatus.getById(rs.getLong("status")));
         return script;
@@ -50,36 +69,149 @@ public class DbScriptDaoOra extends AbstractDaoOra {
         return dbScripts;
     };
 
+    /**
+     * Reads scripts metadata without text. Use {@link #readTextsByIds(List)} to get texts of required scripts.
+     */
     public Map<String, SqlScript> readMap() {
-        return jdbcTemplate.query(READ_ALL, dbScriptsExtractor);
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(READ_ALL);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, dbScriptsExtractor);
+    }
+
+    public Map<Long, String> readTextsByIds(List<Long> ids) {
+        Map<Long, String> texts = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return texts;
+        }
+        try {
+            for (List<Long> chunk : splitForInNumbers(ids)) {
+                Map<String, Object> params = new HashMap<>();
+                String sql = READ_TEXTS_WITH_COMPRESSED_BY_IDS + appendInNumbers("s.db_script_id", chunk, params);
+                namedParameterJdbcTemplate.query(sql, params, rs -> {
+                    byte[] compressedText = rs.getBytes("compressed_text");
+                    String text = compressedText == null ? rs.getString("text") : TextCompressionUtils.decompress(compressedText);
+                    texts.put(rs.getLong("db_script_id"), text);
+                });
+            }
+        } catch (BadSqlGrammarException e) {
+            // db_script_text table is created only when --compress-text option is used
+            for (List<Long> chunk : splitForInNumbers(ids)) {
+                Map<String, Object> params = new HashMap<>();
+                String sql = READ_TEXTS_BY_IDS + appendInNumbers("db_script_id", chunk, params);
+                namedParameterJdbcTemplate.query(sql, params, rs -> {
+                    texts.put(rs.getLong("db_script_id"), rs.getString("text"));
+                });
+            }
+        }
+        return texts;
     }
 
     public Long readCount() {
         return jdbcTemplate.queryForObject(READ_COUNT, Long.class);
     }
 
-    public void createAll(Collection<SqlScript> scripts) {
-        SqlScript[] dbScriptsArr = scripts.toArray(new SqlScript[scripts.size()]);
-        namedParameterJdbcTemplate.batchUpdate(CREATE, SqlParameterSourceUtils.createBatch(dbScriptsArr));
+    /**
+     * Reads runtimes of successfully executed scripts grouped by file hash
+     *
+     * @return runtimes by file hash, empty if db_script has no execution time columns yet
+     */
+    public Map<String, ScriptRuntime> readRuntimes() {
+        Map<String, ScriptRuntime> runtimes = new HashMap<>();
+        try {
+            jdbcTemplate.query(READ_RUNTIMES, rs -> {
+                runtimes.put(rs.getString("file_hash"), new ScriptRuntime(rs.getLong("runs"), rs.getLong("avg_ms")));
+            }, ScriptStatus.EXECUTED.getId());
+        } catch (BadSqlGrammarException e) {
+            // columns are added by the first not read-only run of this version
+        }
+        return runtimes;
+    }
+
+    /**
+     * Inserts scripts in batches of the given size. Ids for the whole batch are taken from the sequence with one query,
+     * so tib_db_script trigger doesn't query the sequence for every row. Script texts are read from files
+     * while the batch is sent, only one batch of texts is in memory at a time.
+     *
+     * @param storeText false to leave db_script.text empty
+     */
+    public void createAll(List<SqlScript> scripts, int batchSize, boolean storeText) {
+        for (int from = 0; from < scripts.size(); from += batchSize) {
+            List<SqlScript> batch = scripts.subList(from, Math.min(from + batchSize, scripts.size()));
+            List<Long> ids = jdbcTemplate.queryForList(READ_NEXT_IDS, Long.class, batch.size());
+            List<Reader> textReaders = new ArrayList<>();
+            try {
+                jdbcTemplate.batchUpdate(CREATE_WITH_ID, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        SqlScript script = batch.get(i);
+                        script.setId(ids.get(i));
+                        ps.setLong(1, script.getId());
+                        ps.setString(2, script.getName());
+                        ps.setString(3, script.getFileHash());
+                        if (storeText) {
+                            setText(ps, 4, script, textReaders);
+                        } else {
+                            ps.setNull(4, Types.CLOB);
+                        }
+                        ps.setTimestamp(5, new Timestamp(script.getTs().getTime()));
+                        ps.setLong(6, script.getType().getId());
+                        ps.setLong(7, script.getStatus().getId());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return batch.size();
+                    }
+                });
+            } finally {
+                textReaders.forEach(IOUtils::closeQuietly);
+            }
+        }
+    }
+
+    private void setText(PreparedStatement ps, int index, SqlScript script, List<Reader> textReaders) throws SQLException {
+        try {
+            Reader reader = script.openTextReader();
+            if (reader == null) {
+                ps.setNull(index, Types.CLOB);
+            } else if (script.getTextSize() < STREAMED_TEXT_MIN_SIZE) {
+                try (Reader smallTextReader = reader) {
+                    ps.setString(index, IOUtils.toString(smallTextReader));
+                }
+            } else {
+                textReaders.add(reader);
+                ps.setCharacterStream(index, reader);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't read file content [" + script.getName() + "]", e);
+        }
     }
 
-    public void create(SqlScript script) {
-        namedParameterJdbcTemplate.update(CREATE, new BeanPropertySqlParameterSource(script));
+    public void create(SqlScript script, boolean storeText) {
+        BeanPropertySqlParameterSource params = new BeanPropertySqlParameterSource(script);
+        // output may be longer than a string bind allows
+        params.registerSqlType("output", Types.CLOB);
+        namedParameterJdbcTemplate.update(storeText ? CREATE : CREATE_WITHOUT_TEXT, params);
     }
 
     public void deleteByIds(List<Long> ids) {
         if (ids == null || ids.isEmpty()) {
             return;
         }
-        Map<String, Object> params = new HashMap<>();
-        String sql = "delete from db_script where ";
-        sql += appendIn("db_script_id", ids, params);
-        namedParameterJdbcTemplate.update(sql, params);
+        for (List<Long> chunk : splitForInNumbers(ids)) {
+            Map<String, Object> params = new HashMap<>();
+            String sql = "delete from db_script where ";
+            sql += appendInNumbers("db_script_id", chunk, params);
+            namedParameterJdbcTemplate.update(sql, params);
+        }
     }
 
-    public void batchUpdate(List<SqlScript> scripts) {
+    public void batchUpdate(List<SqlScript> scripts, boolean storeText) {
         SqlScript[] scriptsArr = scripts.toArray(new SqlScript[scripts.size()]);
-        namedParameterJdbcTemplate.batchUpdate(UPDATE, SqlParameterSourceUtils.createBatch(scriptsArr));
+        namedParameterJdbcTemplate.batchUpdate(storeText ? UPDATE : UPDATE_WITHOUT_TEXT,
+                                               SqlParameterSourceUtils.createBatch(scriptsArr));
     }
 
     public void delete(Long id) {
@@ -98,6 +230,25 @@ public class DbScriptDaoOra extends AbstractDaoOra {
         }
     }
 
+    /**
+     * Adds execution time columns to db_script tables created by previous versions
+     *
+     * @return true if columns were added
+     */
+    public boolean addExecColumnsIfNotExist() {
+        Boolean columnExists = jdbcTemplate.execute((Connection connection) -> {
+            try (ResultSet rs = connection.getMetaData().getColumns(null, connection.getSchema(), "DB_SCRIPT",
+                                                                     "DURATION_MS")) {
+                return rs.next();
+            }
+        });
+        if (Boolean.TRUE.equals(columnExists)) {
+            return false;
+        }
+        jdbcTemplate.execute(ADD_EXEC_COLUMNS);
+        return true;
+    }
+
     public void checkDbConnection() {
         try (Connection ignored = jdbcTemplate.getDataSource().getConnection()) {
         } catch (SQLException e) {
@@ -0,0 +1,123 @@
+package com.onevizion.scmdb.dao;
+
+import com.onevizion.scmdb.vo.SqlScript;
+import org.apache.commons.io.IOUtils;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.onevizion.scmdb.vo.ScriptType.ROLLBACK;
+
+/**
+ * Compressed script texts stored once per file_hash. Only rollback texts are stored, they are needed to revert
+ * deleted scripts.
+ */
+@Repository
+public class DbScriptTextDaoOra extends AbstractDaoOra {
+
+    private static final String CREATE_TABLE = "create table db_script_text(" +
+            " file_hash varchar2(400) not null," +
+            " text blob not null," +
+            " constraint pk_db_script_text primary key (file_hash))";
+    private static final String CHECK_TABLE = "select count(*) from db_script_text where 1 = 0";
+    private static final String MERGE = "merge into db_script_text t" +
+            " using (select ? file_hash from dual) s on (t.file_hash = s.file_hash)" +
+            " when not matched then insert (file_hash, text) values (s.file_hash, ?)";
+    private static final String DELETE_UNUSED = "delete from db_script_text t" +
+            " where not exists (select 1 from db_script s where s.file_hash = t.file_hash)";
+    private static final String READ_ROLLBACK_TEXTS = "select file_hash, text from db_script" +
+            " where type = " + ROLLBACK.getId() + " and text is not null";
+    private static final String CHECK_ROLLBACK_TEXTS = "select count(*) from db_script" +
+            " where type = " + ROLLBACK.getId() + " and text is not null and rownum = 1";
+    private static final String CLEAR_SCRIPT_TEXTS = "update db_script set text = null where text is not null";
+
+    public void createTableIfNotExist() {
+        try {
+            jdbcTemplate.queryForObject(CHECK_TABLE, Long.class);
+        } catch (BadSqlGrammarException e) {
+            jdbcTemplate.execute(CREATE_TABLE);
+        }
+    }
+
+    /**
+     * @return true if db_script still has rollback texts which weren't moved by {@link #migrateFromScriptTable}
+     */
+    public boolean hasTextsToMigrate() {
+        return jdbcTemplate.queryForObject(CHECK_ROLLBACK_TEXTS, Long.class) > 0;
+    }
+
+    public void saveAll(Collection<SqlScript> scripts, int batchSize) {
+        List<Map.Entry<String, byte[]>> batch = new ArrayList<>();
+        for (SqlScript script : scripts) {
+            String text = readText(script);
+            if (text == null) {
+                continue;
+            }
+            batch.add(new SimpleEntry<>(script.getFileHash(), TextCompressionUtils.compress(text)));
+            if (batch.size() == batchSize) {
+                merge(batch);
+                batch.clear();
+            }
+        }
+        merge(batch);
+    }
+
+    /**
+     * Moves rollback texts from db_script.text column and clears texts of all scripts there.
+     * Texts are cleared only after all of them are moved, so an interrupted migration is repeated by the next run.
+     */
+    public void migrateFromScriptTable(int batchSize) {
+        List<Map.Entry<String, byte[]>> batch = new ArrayList<>();
+        jdbcTemplate.query(READ_ROLLBACK_TEXTS, rs -> {
+            batch.add(new SimpleEntry<>(rs.getString("file_hash"), TextCompressionUtils.compress(rs.getString("text"))));
+            if (batch.size() == batchSize) {
+                merge(batch);
+                batch.clear();
+            }
+        });
+        merge(batch);
+        jdbcTemplate.update(CLEAR_SCRIPT_TEXTS);
+    }
+
+    public void deleteUnused() {
+        jdbcTemplate.update(DELETE_UNUSED);
+    }
+
+    private void merge(List<Map.Entry<String, byte[]>> compressedTexts) {
+        if (compressedTexts.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(MERGE, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map.Entry<String, byte[]> compressedText = compressedTexts.get(i);
+                ps.setString(1, compressedText.getKey());
+                ps.setBinaryStream(2, new ByteArrayInputStream(compressedText.getValue()), compressedText.getValue().length);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return compressedTexts.size();
+            }
+        });
+    }
+
+    private String readText(SqlScript script) {
+        try (Reader reader = script.openTextReader()) {
+            return reader == null ? null : IOUtils.toString(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't read file content [" + script.getName() + "]", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.onevizion.scmdb.dao;
+
+import com.onevizion.scmdb.vo.ScriptsMerkleTree;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.onevizion.scmdb.vo.ScriptsMerkleTree.ROOT_NODE;
+
+@Repository
+public class DbScriptTreeDaoOra extends AbstractDaoOra {
+
+    private static final String CREATE_TABLE = "create table db_script_tree(" +
+            " node varchar2(30) not null," +
+            " hash varchar2(40) not null," +
+            " script_cnt number null," +
+            " max_script_id number null," +
+            " constraint pk_db_script_tree primary key (node))";
+
+    /**
+     * Root hash is returned only if db_script wasn't changed by anything else since the tree was saved
+     */
+    private static final String READ_ROOT_HASH = "select hash from db_script_tree" +
+            " where node = '" + ROOT_NODE + "'" +
+            " and script_cnt = (select count(*) from db_script)" +
+            " and max_script_id = (select max(db_script_id) from db_script)";
+    private static final String READ_NODES = "select node, hash from db_script_tree where node <> '" + ROOT_NODE + "'";
+    private static final String DELETE_ALL = "delete from db_script_tree";
+    private static final String CREATE_NODE = "insert into db_script_tree (node, hash) values (?, ?)";
+    private static final String CREATE_ROOT = "insert into db_script_tree (node, hash, script_cnt, max_script_id)" +
+            " select '" + ROOT_NODE + "', ?, count(*), max(db_script_id) from db_script";
+
+    public String readRootHash() {
+        try {
+            List<String> hashes = jdbcTemplate.queryForList(READ_ROOT_HASH, String.class);
+            return hashes.isEmpty() ? null : hashes.get(0);
+        } catch (BadSqlGrammarException e) {
+            // table is created on the first save
+            return null;
+        }
+    }
+
+    public Map<String, String> readNodeHashes() {
+        Map<String, String> nodeHashes = new HashMap<>();
+        try {
+            jdbcTemplate.query(READ_NODES, rs -> {
+                nodeHashes.put(rs.getString("node"), rs.getString("hash"));
+            });
+        } catch (BadSqlGrammarException e) {
+            // table is created on the first save
+        }
+        return nodeHashes;
+    }
+
+    public void deleteAll() {
+        try {
+            jdbcTemplate.update(DELETE_ALL);
+        } catch (BadSqlGrammarException e) {
+            // table is created on the first save
+        }
+    }
+
+    public void save(ScriptsMerkleTree tree) {
+        try {
+            jdbcTemplate.update(DELETE_ALL);
+        } catch (BadSqlGrammarException e) {
+            jdbcTemplate.execute(CREATE_TABLE);
+        }
+
+        List<Object[]> nodes = new ArrayList<>();
+        tree.getNodeHashes().forEach((node, hash) -> nodes.add(new Object[]{node, hash}));
+        jdbcTemplate.batchUpdate(CREATE_NODE, nodes);
+        jdbcTemplate.update(CREATE_ROOT, tree.getRootHash());
+    }
+}
@@ -0,0 +1,53 @@
+package com.onevizion.scmdb.dao;
+
+import com.onevizion.scmdb.vo.DbObject;
+import com.onevizion.scmdb.vo.DbObjectType;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Log of DDL changes written by trg_scmdb_ddl_capture trigger installed with --capture-ddl option
+ */
+@Repository
+public class DdlCaptureDao extends AbstractDaoOra {
+    public static final String CAPTURE_SQL = "ddl_capture.sql";
+
+    private static final String READ_INSTALLED = "select count(*) from user_triggers" +
+            " where trigger_name = 'TRG_SCMDB_DDL_CAPTURE' and status = 'ENABLED'";
+    private static final String READ_MAX_EVENT_ID = "select max(db_ddl_event_id) from db_ddl_event";
+    private static final String READ_CHANGED_OBJECTS = "select distinct object_name, object_type from db_ddl_event" +
+            " where db_ddl_event_id <= ?";
+    private static final String DELETE_EVENTS = "delete from db_ddl_event where db_ddl_event_id <= ?";
+
+    public boolean isInstalled() {
+        return jdbcTemplate.queryForObject(READ_INSTALLED, Long.class) > 0;
+    }
+
+    /**
+     * @return id of the last captured event, null if there are no events
+     */
+    public Long readMaxEventId() {
+        return jdbcTemplate.queryForObject(READ_MAX_EVENT_ID, Long.class);
+    }
+
+    /**
+     * @return objects changed by events up to the given one
+     */
+    public Set<DbObject> readChangedObjects(long maxEventId) {
+        Set<DbObject> changedObjects = new HashSet<>();
+        jdbcTemplate.query(READ_CHANGED_OBJECTS, rs -> {
+            changedObjects.add(new DbObject(rs.getString("object_name"),
+                                            DbObjectType.getByName(rs.getString("object_type"))));
+        }, maxEventId);
+        return changedObjects;
+    }
+
+    /**
+     * Deletes events consumed by DDL generation, events captured after they were read are kept
+     */
+    public void deleteEvents(long maxEventId) {
+        jdbcTemplate.update(DELETE_EVENTS, maxEventId);
+    }
+}
@@ -2,19 +2,34 @@ package com.onevizion.scmdb.dao;
 
 import com.onevizion.scmdb.vo.DbObject;
 import com.onevizion.scmdb.vo.DbObjectType;
+import oracle.jdbc.OracleConnection;
+import oracle.jdbc.OracleStatement;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.springframework.stereotype.Component;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.onevizion.scmdb.vo.DbObjectType.*;
 
 @Component
 public class DdlDao extends AbstractDaoOra {
     private final static String FIND_ALL_DB_OBJECTS = "select object_name,\n" +
-            "       object_type\n" +
+            "       object_type,\n" +
+            "       last_ddl_time\n" +
             "from user_objects\n" +
             "where (object_type = 'TABLE'\n" +
             "    and generated = 'N'\n" +
@@ -28,28 +43,61 @@ public class DdlDao extends AbstractDaoOra {
             "     and generated = 'N'\n" +
             "     and object_name not like 'T$%')\n";
 
-    private final static String SELECT_DDL_COMMENTS_BY_TABLE_NAME = "select table_name, dbms_metadata.get_dependent_ddl('COMMENT', table_name) from" +
+    /**
+     * Indexes, triggers and sequences of tables, their DDL changes don't change last DDL time of the table
+     */
+    private final static String SELECT_TABLES_DEPENDENT_OBJECTS = "select i.table_name, 'INDEX' object_type, i.index_name object_name, o.last_ddl_time" +
+            " from user_indexes i join user_objects o on o.object_name = i.index_name and o.object_type = 'INDEX'" +
+            " where i.generated = 'N' and i.index_name not like 'PK_%'" +
+            " union all" +
+            " select t.table_name, 'TRIGGER', t.trigger_name, o.last_ddl_time" +
+            " from user_triggers t join user_objects o on o.object_name = t.trigger_name and o.object_type = 'TRIGGER'" +
+            " where t.trigger_name not like 'Z_%'" +
+            " union all" +
+            " select t.table_name, 'SEQUENCE', d.referenced_name, o.last_ddl_time" +
+            " from user_dependencies d join user_triggers t on t.trigger_name = d.name" +
+            " join user_objects o on o.object_name = d.referenced_name and o.object_type = 'SEQUENCE'" +
+            " where d.type = 'TRIGGER' and d.referenced_type = 'SEQUENCE'";
+
+    /**
+     * Queries of dependent objects DDL, %s is the condition on table names
+     */
+    private final static String SELECT_DDL_COMMENTS = "select table_name, dbms_metadata.get_dependent_ddl('COMMENT', table_name) from" +
             " ((select table_name from user_tab_comments" +
             "     where comments is not null)" +
             " union" +
             "  (select table_name from user_col_comments" +
             "     where comments is not null" +
-            "     group by table_name)) where table_name = upper(:tableName)";
+            "     group by table_name)) where %s";
 
-    private final static String SELECT_DDL_SEQUENCE_BY_TABLE_NAME = "select trgrs.table_name, dbms_metadata.get_ddl('SEQUENCE', depends.referenced_name)" +
+    private final static String SELECT_DDL_SEQUENCES = "select trgrs.table_name, dbms_metadata.get_ddl('SEQUENCE', depends.referenced_name)" +
             " from user_dependencies depends, user_triggers trgrs" +
             " where trgrs.trigger_name = depends.name and depends.type = 'TRIGGER'" +
-            " and depends.referenced_type = 'SEQUENCE' and trgrs.table_name = upper(:tableName)" +
+            " and depends.referenced_type = 'SEQUENCE' and trgrs.%s" +
             " order by depends.referenced_name";
 
-    private final static String SELECT_DDL_INDEX_BY_TABLE_NAME = "select table_name, dbms_metadata.get_ddl('INDEX', index_name)" +
-            " from user_indexes where generated = 'N' and table_name=upper(:tableName) and index_name not like 'PK_%'" +
+    private final static String SELECT_DDL_INDEXES = "select table_name, dbms_metadata.get_ddl('INDEX', index_name)" +
+            " from user_indexes where generated = 'N' and %s and index_name not like 'PK_%%'" +
             " order by table_name asc, uniqueness desc, regexp_substr(index_name, '^\\D*') nulls first, " +
             "  to_number(regexp_substr(index_name, '\\d+'))";
 
-    private final static String SELECT_DDL_TRIGGER_BY_TABLE_NAME = "select table_name, dbms_metadata.get_ddl('TRIGGER', trigger_name)" +
-            " from user_triggers where table_name=upper(:tableName)" +
-            " and trigger_name not like 'Z_%' order by nlssort(trigger_name, 'NLS_SORT = BINARY_CI')";
+    private final static String SELECT_DDL_TRIGGERS = "select table_name, dbms_metadata.get_ddl('TRIGGER', trigger_name)" +
+            " from user_triggers where %s" +
+            " and trigger_name not like 'Z_%%' order by nlssort(trigger_name, 'NLS_SORT = BINARY_CI')";
+
+    private final static String TABLE_NAME_CONDITION = "table_name = upper(:tableName)";
+    private final static String TABLE_NAMES_CONDITION = "table_name in (select column_value from table(?))";
+
+    private final static String SELECT_DDLS_BY_NAMES = "select object_name, dbms_metadata.get_ddl(?, object_name)" +
+            " from user_objects where object_type = ? and object_name in (select column_value from table(?))";
+
+    private final static String VARCHAR_LIST_TYPE = "SYS.ODCIVARCHAR2LIST";
+
+    /**
+     * DDL is fetched with rows instead of a separate round trip for each LOB when it's not bigger than this
+     */
+    private final static int LOB_PREFETCH_SIZE = 256 * 1024;
+    private final static int DDL_FETCH_SIZE = 100;
 
     private final static RowMapper<DbObject> rowMapper = (rs, rowNum) -> {
         DbObject dbObject = new DbObject();
@@ -65,6 +113,39 @@ public class DdlDao extends AbstractDaoOra {
         return dbObject;
     };
     
+    /**
+     * Connection of the session DAO, null for the shared DAO working with the pool
+     */
+    private Connection connection;
+
+    /**
+     * Opens DAO which runs all its queries in one dedicated connection of the pool with DBMS_METADATA transforms set.
+     * Transforms are session settings, so they aren't applied to queries in other connections of the pool.
+     * Session should be closed by {@link #closeSession()}.
+     */
+    public DdlDao openSession() {
+        Connection sessionConnection = DataSourceUtils.getConnection(jdbcTemplate.getDataSource());
+        DdlDao session = new DdlDao();
+        session.connection = sessionConnection;
+        session.jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(sessionConnection, true));
+        session.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(session.jdbcTemplate);
+        try {
+            session.executeTransformParamStatements();
+        } catch (RuntimeException e) {
+            session.closeSession();
+            throw e;
+        }
+        return session;
+    }
+
+    public void closeSession() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // connection is returned to the pool anyway
+        }
+    }
+
     public void executeTransformParamStatements() {
         String plsqlBlock = "begin" +
                 "\n dbms_metadata.set_transform_param(dbms_metadata.session_transform,'PRETTY',true);" +
@@ -74,8 +155,28 @@ public class DdlDao extends AbstractDaoOra {
         jdbcTemplate.execute(plsqlBlock);
     }
 
-    public List<DbObject> extractAllDbObjectsWithoutDdl() {
-        return jdbcTemplate.query(FIND_ALL_DB_OBJECTS, rowMapperWithObjectType);
+    /**
+     * @return last DDL time in milliseconds by all objects which DDL is generated
+     */
+    public Map<DbObject, Long> readLastDdlTimes() {
+        Map<DbObject, Long> lastDdlTimes = new HashMap<>();
+        jdbcTemplate.query(FIND_ALL_DB_OBJECTS, rs -> {
+            lastDdlTimes.put(rowMapperWithObjectType.mapRow(rs, rs.getRow()), rs.getTimestamp("last_ddl_time").getTime());
+        });
+        return lastDdlTimes;
+    }
+
+    /**
+     * @return "type name lastDdlTime" of indexes, triggers and sequences by lower case table names
+     */
+    public Map<String, List<String>> readTablesDependentObjects() {
+        Map<String, List<String>> dependentObjects = new HashMap<>();
+        jdbcTemplate.query(SELECT_TABLES_DEPENDENT_OBJECTS, rs -> {
+            dependentObjects.computeIfAbsent(rs.getString("table_name").toLowerCase(), k -> new ArrayList<>())
+                            .add(rs.getString("object_type") + " " + rs.getString("object_name") + " "
+                                         + rs.getTimestamp("last_ddl_time").getTime());
+        });
+        return dependentObjects;
     }
 
     public String extractDdl(DbObject dbObject) {
@@ -86,23 +187,75 @@ public class DdlDao extends AbstractDaoOra {
         return namedParameterJdbcTemplate.queryForObject(sql, namedParams, String.class);
     }
 
+    /**
+     * Extracts DDL of all objects of the type by one query
+     *
+     * @return DDL by lower case object names
+     */
+    public Map<String, String> extractDdls(DbObjectType objectType, Collection<String> objectNames) {
+        Map<String, String> ddls = new HashMap<>();
+        if (objectNames.isEmpty()) {
+            return ddls;
+        }
+        queryByNames(SELECT_DDLS_BY_NAMES, objectNames, rs -> {
+            ddls.put(rs.getString(1).toLowerCase(), rs.getString(2));
+        }, objectType.toString(), objectType.getName().toUpperCase());
+        return ddls;
+    }
+
     public List<DbObject> extractTableDependentObjectsDdl(String tableName, DbObjectType depObjType) {
         MapSqlParameterSource namedParams = new MapSqlParameterSource("tableName", tableName);
+        return namedParameterJdbcTemplate.query(getDependentDdlSql(depObjType, TABLE_NAME_CONDITION), namedParams,
+                                                rowMapper);
+    }
 
-        List<DbObject> dbObjects = null;
-        if (depObjType == COMMENT) {
-            dbObjects = namedParameterJdbcTemplate.query(SELECT_DDL_COMMENTS_BY_TABLE_NAME, namedParams, rowMapper);
-        } else if (depObjType == SEQUENCE) {
-            dbObjects = namedParameterJdbcTemplate.query(SELECT_DDL_SEQUENCE_BY_TABLE_NAME, namedParams, rowMapper);
-        } else if (depObjType == INDEX) {
-            dbObjects = namedParameterJdbcTemplate.query(SELECT_DDL_INDEX_BY_TABLE_NAME, namedParams, rowMapper);
-        } else if (depObjType == TRIGGER) {
-            dbObjects = namedParameterJdbcTemplate.query(SELECT_DDL_TRIGGER_BY_TABLE_NAME, namedParams, rowMapper);
+    /**
+     * Extracts dependent objects DDL of all given tables by one query
+     *
+     * @return dependent objects DDL by lower case table names, in the same order as for one table
+     */
+    public Map<String, List<DbObject>> extractTablesDependentObjectsDdl(Collection<String> tableNames,
+                                                                         DbObjectType depObjType) {
+        Map<String, List<DbObject>> dbObjects = new HashMap<>();
+        if (tableNames.isEmpty()) {
+            return dbObjects;
         }
-
+        queryByNames(getDependentDdlSql(depObjType, TABLE_NAMES_CONDITION), tableNames, rs -> {
+            DbObject dbObject = rowMapper.mapRow(rs, rs.getRow());
+            dbObjects.computeIfAbsent(dbObject.getName(), k -> new ArrayList<>()).add(dbObject);
+        });
         return dbObjects;
     }
 
+    private String getDependentDdlSql(DbObjectType depObjType, String tableNameCondition) {
+        switch (depObjType) {
+            case COMMENT: return String.format(SELECT_DDL_COMMENTS, tableNameCondition);
+            case SEQUENCE: return String.format(SELECT_DDL_SEQUENCES, tableNameCondition);
+            case INDEX: return String.format(SELECT_DDL_INDEXES, tableNameCondition);
+            case TRIGGER: return String.format(SELECT_DDL_TRIGGERS, tableNameCondition);
+            default: throw new IllegalArgumentException("Unsupported dependent object type: " + depObjType);
+        }
+    }
+
+    /**
+     * Executes query with the given parameters followed by the names bound as one collection.
+     * DDL LOBs are prefetched with rows.
+     */
+    private void queryByNames(String sql, Collection<String> names, RowCallbackHandler rowHandler, Object... params) {
+        Object[] upperCaseNames = names.stream().map(String::toUpperCase).toArray();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setFetchSize(DDL_FETCH_SIZE);
+            ps.unwrap(OracleStatement.class).setLobPrefetchSize(LOB_PREFETCH_SIZE);
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            ps.setArray(params.length + 1, connection.unwrap(OracleConnection.class)
+                                                     .createOracleArray(VARCHAR_LIST_TYPE, upperCaseNames));
+            return ps;
+        }, rowHandler);
+    }
+
     public String getTableNameByDepObject(DbObject dbObject) {
         MapSqlParameterSource namedParams = new MapSqlParameterSource();
         namedParams.addValue("objName", dbObject.getName());
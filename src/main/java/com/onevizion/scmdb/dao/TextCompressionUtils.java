@@ -0,0 +1,34 @@
+package com.onevizion.scmdb.dao;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+final class TextCompressionUtils {
+
+    private TextCompressionUtils() {}
+
+    static byte[] compress(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't compress script text", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static String decompress(byte[] compressedText) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressedText))) {
+            return IOUtils.toString(gzip, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't decompress script text", e);
+        }
+    }
+}
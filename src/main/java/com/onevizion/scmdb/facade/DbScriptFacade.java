@@ -3,7 +3,12 @@ package com.onevizion.scmdb.facade;
 import com.onevizion.scmdb.AppArguments;
 import com.onevizion.scmdb.ColorLogger;
 import com.onevizion.scmdb.dao.DbScriptDaoOra;
+import com.onevizion.scmdb.dao.DbScriptTextDaoOra;
+import com.onevizion.scmdb.dao.DbScriptTreeDaoOra;
 import com.onevizion.scmdb.exception.ScmdbException;
+import com.onevizion.scmdb.vo.ScriptStatus;
+import com.onevizion.scmdb.vo.ScriptsDrift;
+import com.onevizion.scmdb.vo.ScriptsMerkleTree;
 import com.onevizion.scmdb.vo.SqlScript;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -16,7 +21,10 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.onevizion.scmdb.ColorLogger.Color.YELLOW;
+import static com.onevizion.scmdb.vo.SchemaType.OWNER;
 import static com.onevizion.scmdb.vo.ScriptType.COMMIT;
+import static com.onevizion.scmdb.vo.ScriptType.ROLLBACK;
 
 @Component
 public class DbScriptFacade {
@@ -24,6 +32,12 @@ public class DbScriptFacade {
     @Autowired
     private DbScriptDaoOra sqlScriptDaoOra;
 
+    @Autowired
+    private DbScriptTreeDaoOra scriptTreeDaoOra;
+
+    @Autowired
+    private DbScriptTextDaoOra scriptTextDaoOra;
+
     @Autowired
     private AppArguments appArguments;
 
@@ -35,14 +49,104 @@ public class DbScriptFacade {
 
     private File execDir;
     private List<SqlScript> scriptsInDir;
+    private ScriptHashCache hashCache;
+    private ScriptRuntimeHistory runtimeHistory;
+    /**
+     * History shared by several targets is saved by its owner
+     */
+    private boolean runtimeHistoryShared;
+
+    /**
+     * Run-scoped snapshot of db_script rows. It's read once and then kept in sync with all modifications made by this run.
+     */
+    private Map<String, SqlScript> dbScripts;
+    private String savedTreeRootHash;
+    private boolean textStoragePrepared;
 
     public void init() {
         execDir = new File(appArguments.getScriptsDirectory().getAbsolutePath() + File.separator + EXEC_FOLDER_NAME);
-        scriptsInDir = createScriptsFromFiles(appArguments.isGenDdl() || !appArguments.isOmitChanged());
+        if (appArguments.getTargetName() != null) {
+            execDir = new File(execDir, appArguments.getTargetName());
+        }
+        if (scriptsInDir != null) {
+            // directory was scanned once for all targets, see setScannedScripts
+            return;
+        }
+        hashCache = ScriptHashCache.load(appArguments.getCacheDirectory());
+        scriptsInDir = createScriptsFromFiles(appArguments.isReadAllFilesContent());
+        if (appArguments.isReadAllFilesContent()) {
+            saveHashCache();
+        }
+    }
+
+    /**
+     * Sets scripts of the directory scanned once for several targets. Each target gets its own copies of scripts.
+     */
+    public void setScannedScripts(ScriptHashCache hashCache, ScriptRuntimeHistory runtimeHistory,
+                                  List<SqlScript> scripts) {
+        this.hashCache = hashCache;
+        this.runtimeHistory = runtimeHistory;
+        runtimeHistoryShared = true;
+        scriptsInDir = scripts.stream()
+                              .map(SqlScript::copy)
+                              .collect(Collectors.toList());
+    }
+
+    private void saveHashCache() {
+        try {
+            hashCache.save();
+        } catch (IOException e) {
+            logger.warn("Can't save script hash cache [{}]: {}", YELLOW, hashCache.getCacheFile().getAbsolutePath(),
+                        e.getMessage());
+        }
+    }
+
+    /**
+     * Checks DB connection and reads everything the run needs from db_script. It can run concurrently with {@link #init()}.
+     * Full snapshot of db_script is read only when there is no saved hash tree to check whether DB is up to date.
+     * Runtime history is loaded here too, it's completed by runtimes of scripts executed in this DB.
+     *
+     * @return true if db_script table exists
+     */
+    public boolean loadDbState() {
+        if (!runtimeHistoryShared) {
+            runtimeHistory = ScriptRuntimeHistory.load(appArguments.getCacheDirectory());
+        }
+        checkDbConnection();
+        if (!isScriptTableExist()) {
+            return false;
+        }
+        if (!appArguments.isReadOnly()) {
+            if (sqlScriptDaoOra.addExecColumnsIfNotExist()) {
+                logger.info("Columns for script execution times were added to db_script table");
+            }
+            prepareTextStorage();
+        }
+        readDbRuntimes(runtimeHistory);
+        savedTreeRootHash = scriptTreeDaoOra.readRootHash();
+        if (savedTreeRootHash == null) {
+            getDbScripts();
+        }
+        return true;
+    }
+
+    /**
+     * Adds runtimes of scripts executed in this DB to the history, runtimes read before are replaced
+     */
+    public void readDbRuntimes(ScriptRuntimeHistory history) {
+        history.setDbRuntimes(appArguments.getDbCredentials(OWNER).getSchemaWithUrlBeforeDot(),
+                              sqlScriptDaoOra.readRuntimes());
+    }
+
+    private Map<String, SqlScript> getDbScripts() {
+        if (dbScripts == null) {
+            dbScripts = sqlScriptDaoOra.readMap();
+        }
+        return dbScripts;
     }
 
     public List<SqlScript> getNewScripts() {
-        Map<String, SqlScript> savedScripts = sqlScriptDaoOra.readMap();
+        Map<String, SqlScript> savedScripts = getDbScripts();
 
         scriptsInDir.stream()
                     .filter(this::isDevScript)
@@ -53,7 +157,7 @@ public class DbScriptFacade {
                                                  .filter(script -> !savedScripts.containsKey(script.getName()))
                                                  .collect(Collectors.toList());
         if (!appArguments.isReadAllFilesContent()) {
-            newScripts.forEach(SqlScript::loadContentFromFile);
+            newScripts.forEach(hashCache::loadHash);
         }
         return newScripts;
     }
@@ -82,7 +186,7 @@ public class DbScriptFacade {
     }
 
     public boolean isFirstRun() {
-        return sqlScriptDaoOra.readCount().equals(0L);
+        return getDbScripts().isEmpty();
     }
 
     public void cleanExecDir() {
@@ -95,17 +199,15 @@ public class DbScriptFacade {
         }
     }
 
-    private List<SqlScript> createScriptsFromFiles(boolean readAllScriptsContent) {
-        List<File> scriptFiles = (List<File>) FileUtils.listFiles(appArguments.getScriptsDirectory(), new String[]{"sql"}, false);
-        return scriptFiles.stream()
-                          .map(f -> SqlScript.create(f, readAllScriptsContent))
-                          .sorted()
-                          .collect(Collectors.toList());
+    private List<SqlScript> createScriptsFromFiles(boolean calcFileHash) {
+        ScriptsDirScanner scanner = new ScriptsDirScanner(appArguments.getScriptsDirectory(),
+                                                          appArguments.getScanThreads(), hashCache);
+        return scanner.scan(calcFileHash);
     }
 
     public List<SqlScript> getUpdatedScripts() {
         List<SqlScript> updatedScripts = new ArrayList<>();
-        Map<String, SqlScript> dbScripts = sqlScriptDaoOra.readMap();
+        Map<String, SqlScript> dbScripts = getDbScripts();
 
         for (SqlScript scriptInDir : scriptsInDir) {
             if (!dbScripts.containsKey(scriptInDir.getName())) {
@@ -122,15 +224,22 @@ public class DbScriptFacade {
     }
 
     public void batchUpdate(List<SqlScript> updatedScripts) {
-        sqlScriptDaoOra.batchUpdate(updatedScripts);
+        sqlScriptDaoOra.batchUpdate(updatedScripts, !appArguments.isCompressText());
+        if (appArguments.isCompressText()) {
+            saveCompressedTexts(updatedScripts);
+            scriptTextDaoOra.deleteUnused();
+        }
+        updatedScripts.forEach(script -> getDbScripts().get(script.getName()).setFileHash(script.getFileHash()));
     }
 
     public void batchCreate(List<SqlScript> scripts) {
-        sqlScriptDaoOra.createAll(scripts);
+        sqlScriptDaoOra.createAll(scripts, appArguments.getBatchSize(), !appArguments.isCompressText());
+        saveCompressedTexts(scripts);
+        scripts.forEach(script -> getDbScripts().put(script.getName(), script));
     }
 
     public Map<String, SqlScript> getDeletedScriptsMap() {
-        Map<String, SqlScript> dbScripts = sqlScriptDaoOra.readMap();
+        Map<String, SqlScript> dbScripts = getDbScripts();
         Map<String, SqlScript> scriptsInDirMap = scriptsInDir.stream()
                                                              .collect(Collectors.toMap(SqlScript::getName, Function.identity()));
 
@@ -153,22 +262,125 @@ public class DbScriptFacade {
         return deletedScripts;
     }
 
+    /**
+     * Compares scripts in the directory with db_script without any changes in DB or scripts directory.
+     * Only commit scripts are reported as new or deleted, changes are reported for all scripts.
+     */
+    public ScriptsDrift getDrift() {
+        Map<String, SqlScript> dbScripts = getDbScripts();
+        Set<String> scriptNamesInDir = new HashSet<>();
+        List<String> newScripts = new ArrayList<>();
+        List<String> changedScripts = appArguments.isReadAllFilesContent() ? new ArrayList<>() : null;
+
+        for (SqlScript scriptInDir : scriptsInDir) {
+            scriptNamesInDir.add(scriptInDir.getName());
+            SqlScript dbScript = dbScripts.get(scriptInDir.getName());
+            if (dbScript == null) {
+                if (scriptInDir.getType() == COMMIT && !isDevScript(scriptInDir)) {
+                    newScripts.add(scriptInDir.getName());
+                }
+            } else if (changedScripts != null && !scriptInDir.getFileHash().equals(dbScript.getFileHash())) {
+                changedScripts.add(scriptInDir.getName());
+            }
+        }
+
+        List<String> deletedScripts = dbScripts.values().stream()
+                                               .filter(script -> script.getType() == COMMIT)
+                                               .map(SqlScript::getName)
+                                               .filter(name -> !scriptNamesInDir.contains(name))
+                                               .sorted()
+                                               .collect(Collectors.toList());
+        return new ScriptsDrift(newScripts, changedScripts, deletedScripts);
+    }
+
+    public void loadTexts(Collection<SqlScript> scripts) {
+        Map<Long, String> texts = sqlScriptDaoOra.readTextsByIds(scripts.stream()
+                                                                        .map(SqlScript::getId)
+                                                                        .collect(Collectors.toList()));
+        scripts.forEach(script -> script.setText(texts.get(script.getId())));
+    }
+
     public void deleteAll(Collection<SqlScript> scripts) {
         sqlScriptDaoOra.deleteByIds(scripts.stream()
                                            .map(SqlScript::getId)
                                            .collect(Collectors.toList()));
+        scripts.forEach(script -> getDbScripts().remove(script.getName()));
+        if (appArguments.isCompressText()) {
+            scriptTextDaoOra.deleteUnused();
+        }
+    }
+
+    /**
+     * Synchronized because scripts of different schemas may be executed concurrently
+     */
+    public synchronized void create(SqlScript script) {
+        sqlScriptDaoOra.create(script, !appArguments.isCompressText());
+        saveCompressedTexts(Collections.singletonList(script));
+        getDbScripts().put(script.getName(), script);
+        if (script.getDurationMs() != null && script.getStatus() == ScriptStatus.EXECUTED) {
+            runtimeHistory.add(script.getFileHash(), script.getDurationMs());
+        }
+    }
+
+    /**
+     * @return runtime of the script predicted by its previous executions in any DB, null if it's unknown
+     */
+    public Long getPredictedRuntime(SqlScript script) {
+        return runtimeHistory.getPredictedMillis(script.getFileHash());
     }
 
-    public void create(SqlScript script) {
-        sqlScriptDaoOra.create(script);
+    public void saveRuntimeHistory() {
+        if (runtimeHistoryShared) {
+            return;
+        }
+        try {
+            runtimeHistory.save();
+        } catch (IOException e) {
+            logger.warn("Can't save script runtime history [{}]: {}", YELLOW,
+                        runtimeHistory.getHistoryFile().getAbsolutePath(), e.getMessage());
+        }
     }
 
     public void createAllFromDirectory() {
-        sqlScriptDaoOra.createAll(createScriptsFromFiles(true));
+        scriptsInDir.stream()
+                    .filter(script -> script.getFileHash() == null)
+                    .forEach(hashCache::loadHash);
+        sqlScriptDaoOra.createAll(scriptsInDir, appArguments.getBatchSize(), !appArguments.isCompressText());
+        saveCompressedTexts(scriptsInDir);
+        dbScripts = new HashMap<>();
+        scriptsInDir.forEach(script -> dbScripts.put(script.getName(), script));
+    }
+
+    /**
+     * Creates db_script_text table when --compress-text option is used for the first time
+     * and moves rollback texts there from db_script table. Migration is decided by texts left in db_script,
+     * so it's resumed if the previous run was interrupted after the table creation.
+     */
+    private void prepareTextStorage() {
+        if (!appArguments.isCompressText() || textStoragePrepared) {
+            return;
+        }
+        scriptTextDaoOra.createTableIfNotExist();
+        if (scriptTextDaoOra.hasTextsToMigrate()) {
+            logger.info("Moving script texts to compressed storage...");
+            scriptTextDaoOra.migrateFromScriptTable(appArguments.getBatchSize());
+        }
+        textStoragePrepared = true;
+    }
+
+    private void saveCompressedTexts(Collection<SqlScript> scripts) {
+        if (!appArguments.isCompressText()) {
+            return;
+        }
+        prepareTextStorage();
+        scriptTextDaoOra.saveAll(scripts.stream()
+                                        .filter(script -> script.getType() == ROLLBACK)
+                                        .collect(Collectors.toList()), appArguments.getBatchSize());
     }
 
     public void delete(Long id) {
         sqlScriptDaoOra.delete(id);
+        getDbScripts().values().removeIf(script -> id.equals(script.getId()));
     }
 
     public void copyScriptsToExecDir(List<SqlScript> scripts) {
@@ -195,6 +407,44 @@ public class DbScriptFacade {
         }
     }
 
+    /**
+     * Compares hash tree of scripts in the directory with the tree saved after the previous run.
+     * Equal root hashes mean there are no new, changed or deleted scripts.
+     * Dev scripts are never executed and saved, so both trees are built without them.
+     */
+    public boolean isDbUpToDate() {
+        if (!appArguments.isReadAllFilesContent()) {
+            return false;
+        }
+        ScriptsMerkleTree dirTree = createScriptsTree(scriptsInDir);
+        if (dirTree.getRootHash().equals(savedTreeRootHash)) {
+            return true;
+        }
+
+        Map<String, String> savedNodeHashes = scriptTreeDaoOra.readNodeHashes();
+        if (!savedNodeHashes.isEmpty()) {
+            logger.info("Changed script ranges: {}", dirTree.findChangedNodes(savedNodeHashes));
+        }
+        return false;
+    }
+
+    /**
+     * Saved tree is dropped before db_script modification, so it never describes a partially updated DB
+     */
+    public void invalidateScriptsTree() {
+        scriptTreeDaoOra.deleteAll();
+    }
+
+    public void saveScriptsTree() {
+        scriptTreeDaoOra.save(createScriptsTree(getDbScripts().values()));
+    }
+
+    private ScriptsMerkleTree createScriptsTree(Collection<SqlScript> scripts) {
+        return ScriptsMerkleTree.create(scripts.stream()
+                                               .filter(script -> !isDevScript(script))
+                                               .collect(Collectors.toList()));
+    }
+
     public void checkDbConnection() {
         sqlScriptDaoOra.checkDbConnection();
     }
@@ -0,0 +1,116 @@
+package com.onevizion.scmdb.facade;
+
+import com.onevizion.scmdb.vo.SqlScript;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local index of script file hashes keyed by file name, size and modification time.
+ * Lets the scan skip hashing of files which weren't touched since the previous run.
+ * Index is stored in the cache directory out of the VCS tree, one "name|size|mtime|hash" line per file.
+ */
+public class ScriptHashCache {
+    public static final String CACHE_FILE_NAME = ".scmdb_hash_cache";
+
+    /**
+     * Files modified less than this interval before hashing aren't cached:
+     * they may be changed again without a visible change of size and modification time.
+     */
+    private static final long RACY_INTERVAL_MILLIS = 2000L;
+    private static final String SEPARATOR = "|";
+
+    private final File cacheFile;
+    private final Map<String, Entry> savedEntries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> actualEntries = new ConcurrentHashMap<>();
+
+    private ScriptHashCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public static ScriptHashCache load(File cacheDirectory) {
+        ScriptHashCache cache = new ScriptHashCache(new File(cacheDirectory, CACHE_FILE_NAME));
+        if (!cache.cacheFile.isFile()) {
+            return cache;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(cache.cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\" + SEPARATOR);
+                if (parts.length == 4) {
+                    cache.savedEntries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // broken cache is not an error, all files will be hashed again
+            cache.savedEntries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Sets file hash of the script from the cache or calculates it when script file was changed.
+     */
+    public void loadHash(SqlScript script) {
+        File file = script.getFile();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Entry entry = actualEntries.get(script.getName());
+        if (entry == null || !entry.isSameFile(size, lastModified)) {
+            entry = savedEntries.get(script.getName());
+        }
+
+        if (entry != null && entry.isSameFile(size, lastModified)) {
+            script.setFileHash(entry.hash);
+        } else {
+            script.loadHashFromFile();
+            entry = new Entry(size, lastModified, script.getFileHash());
+        }
+
+        if (System.currentTimeMillis() - lastModified >= RACY_INTERVAL_MILLIS) {
+            actualEntries.put(script.getName(), entry);
+        }
+    }
+
+    /**
+     * Saves hashes calculated or confirmed during this run. Entries of deleted files are dropped.
+     */
+    public void save() throws IOException {
+        Files.createDirectories(cacheFile.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : actualEntries.entrySet()) {
+                writer.write(e.getKey() + SEPARATOR + e.getValue().size + SEPARATOR + e.getValue().lastModified
+                        + SEPARATOR + e.getValue().hash);
+                writer.newLine();
+            }
+        }
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        boolean isSameFile(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.onevizion.scmdb.facade;
+
+import com.onevizion.scmdb.vo.ScriptRuntime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * History of script runtimes keyed by file hash, so runtime of a script executed in one DB
+ * predicts its runtime in other DBs. Runtimes are read from db_script of every DB used by the run.
+ * Runtimes of scripts executed by this machine are also cached in the cache directory out of the VCS tree,
+ * one "hash|runs|avgMillis" line per script content, they are used when no DB knows the script.
+ */
+public class ScriptRuntimeHistory {
+    public static final String HISTORY_FILE_NAME = ".scmdb_runtime_history";
+
+    private static final String SEPARATOR = "|";
+
+    private final File historyFile;
+    private final Map<String, ScriptRuntime> entries = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, ScriptRuntime>> dbRuntimes = new ConcurrentHashMap<>();
+
+    private ScriptRuntimeHistory(File historyFile) {
+        this.historyFile = historyFile;
+    }
+
+    public static ScriptRuntimeHistory load(File cacheDirectory) {
+        ScriptRuntimeHistory history = new ScriptRuntimeHistory(new File(cacheDirectory, HISTORY_FILE_NAME));
+        if (!history.historyFile.isFile()) {
+            return history;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(history.historyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\" + SEPARATOR);
+                if (parts.length == 3) {
+                    history.entries.put(parts[0], new ScriptRuntime(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // broken history is not an error, runtimes just can't be predicted
+            history.entries.clear();
+        }
+        return history;
+    }
+
+    /**
+     * Adds runtime of a successful execution of the script with the given content
+     */
+    public void add(String fileHash, long durationMillis) {
+        entries.merge(fileHash, new ScriptRuntime(1, durationMillis), ScriptRuntime::merge);
+    }
+
+    /**
+     * Sets runtimes read from db_script of a DB, runtimes read from the same DB before are replaced
+     *
+     * @param dbName name of the DB
+     * @param runtimes runtimes by file hash
+     */
+    public void setDbRuntimes(String dbName, Map<String, ScriptRuntime> runtimes) {
+        dbRuntimes.put(dbName, runtimes);
+    }
+
+    /**
+     * @return average runtime of the script content in milliseconds in all known DBs or in the local history
+     * if no DB has executed it, null if it was never executed
+     */
+    public Long getPredictedMillis(String fileHash) {
+        if (fileHash == null) {
+            return null;
+        }
+        ScriptRuntime runtime = dbRuntimes.values()
+                                          .stream()
+                                          .map(runtimes -> runtimes.get(fileHash))
+                                          .filter(Objects::nonNull)
+                                          .reduce(ScriptRuntime::merge)
+                                          .orElseGet(() -> entries.get(fileHash));
+        return runtime == null ? null : runtime.getAvgMillis();
+    }
+
+    public void save() throws IOException {
+        Files.createDirectories(historyFile.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(historyFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, ScriptRuntime> e : entries.entrySet()) {
+                writer.write(e.getKey() + SEPARATOR + e.getValue().getRuns() + SEPARATOR + e.getValue().getAvgMillis());
+                writer.newLine();
+            }
+        }
+    }
+
+    public File getHistoryFile() {
+        return historyFile;
+    }
+}
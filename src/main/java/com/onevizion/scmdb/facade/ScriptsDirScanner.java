@@ -0,0 +1,79 @@
+package com.onevizion.scmdb.facade;
+
+import com.onevizion.scmdb.vo.SqlScript;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads and hashes script files on a bounded fork-join pool.
+ * Result is the same sorted list of scripts the single-threaded scan produced.
+ * Only files changed since the previous scan are hashed, see {@link ScriptHashCache}.
+ */
+public class ScriptsDirScanner {
+    private static final int FILES_PER_TASK = 32;
+
+    private final File scriptsDirectory;
+    private final int threads;
+    private final ScriptHashCache hashCache;
+
+    public ScriptsDirScanner(File scriptsDirectory, int threads, ScriptHashCache hashCache) {
+        this.scriptsDirectory = scriptsDirectory;
+        this.threads = threads;
+        this.hashCache = hashCache;
+    }
+
+    public List<SqlScript> scan(boolean calcFileHash) {
+        List<File> scriptFiles = new ArrayList<>(FileUtils.listFiles(scriptsDirectory, new String[]{"sql"}, false));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<SqlScript> scripts = pool.invoke(new ScanTask(scriptFiles, calcFileHash, hashCache));
+            Collections.sort(scripts);
+            return scripts;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class ScanTask extends RecursiveTask<List<SqlScript>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final boolean calcFileHash;
+        private final ScriptHashCache hashCache;
+
+        ScanTask(List<File> files, boolean calcFileHash, ScriptHashCache hashCache) {
+            this.files = files;
+            this.calcFileHash = calcFileHash;
+            this.hashCache = hashCache;
+        }
+
+        @Override
+        protected List<SqlScript> compute() {
+            if (files.size() <= FILES_PER_TASK) {
+                List<SqlScript> scripts = new ArrayList<>(files.size());
+                for (File file : files) {
+                    SqlScript script = SqlScript.create(file, false);
+                    if (calcFileHash) {
+                        hashCache.loadHash(script);
+                    }
+                    scripts.add(script);
+                }
+                return scripts;
+            }
+
+            int middle = files.size() / 2;
+            ScanTask left = new ScanTask(files.subList(0, middle), calcFileHash, hashCache);
+            ScanTask right = new ScanTask(files.subList(middle, files.size()), calcFileHash, hashCache);
+            left.fork();
+            List<SqlScript> scripts = right.compute();
+            scripts.addAll(left.join());
+            return scripts;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.onevizion.scmdb.vo;
+
+/**
+ * When invalid objects are compiled during scripts execution
+ */
+public enum CompileInvalidsMode {
+    /**
+     * After each script, in the schema of the script
+     */
+    SCRIPT,
+
+    /**
+     * Once after all scripts, in each schema where scripts were executed
+     */
+    BATCH;
+
+    public static CompileInvalidsMode getByName(String name) {
+        for (CompileInvalidsMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Not supported --compile-invalids value: [" + name + "]." +
+                " Use \"script\" or \"batch\".");
+    }
+}
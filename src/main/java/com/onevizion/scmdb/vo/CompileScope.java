@@ -0,0 +1,26 @@
+package com.onevizion.scmdb.vo;
+
+/**
+ * Which invalid objects are compiled after scripts execution
+ */
+public enum CompileScope {
+    /**
+     * Objects changed by executed scripts and objects which depend on them
+     */
+    CHANGED,
+
+    /**
+     * All invalid objects of the schema
+     */
+    SCHEMA;
+
+    public static CompileScope getByName(String name) {
+        for (CompileScope scope : values()) {
+            if (scope.name().equalsIgnoreCase(name)) {
+                return scope;
+            }
+        }
+        throw new IllegalArgumentException("Not supported --compile-scope value: [" + name + "]." +
+                " Use \"changed\" or \"schema\".");
+    }
+}
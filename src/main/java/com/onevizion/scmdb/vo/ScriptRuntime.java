@@ -0,0 +1,27 @@
+package com.onevizion.scmdb.vo;
+
+/**
+ * Number of successful executions of a script content and their average runtime
+ */
+public class ScriptRuntime {
+    private final long runs;
+    private final long avgMillis;
+
+    public ScriptRuntime(long runs, long avgMillis) {
+        this.runs = runs;
+        this.avgMillis = avgMillis;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getAvgMillis() {
+        return avgMillis;
+    }
+
+    public ScriptRuntime merge(ScriptRuntime other) {
+        long mergedRuns = runs + other.runs;
+        return new ScriptRuntime(mergedRuns, (avgMillis * runs + other.avgMillis * other.runs) / mergedRuns);
+    }
+}
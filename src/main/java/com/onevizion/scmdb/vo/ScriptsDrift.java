@@ -0,0 +1,62 @@
+package com.onevizion.scmdb.vo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference between scripts directory and db_script table of a DB
+ */
+public class ScriptsDrift {
+    private final boolean initialized;
+    private final List<String> newScripts;
+    private final List<String> changedScripts;
+    private final List<String> deletedScripts;
+
+    public ScriptsDrift(List<String> newScripts, List<String> changedScripts, List<String> deletedScripts) {
+        this(true, newScripts, changedScripts, deletedScripts);
+    }
+
+    private ScriptsDrift(boolean initialized, List<String> newScripts, List<String> changedScripts,
+                         List<String> deletedScripts) {
+        this.initialized = initialized;
+        this.newScripts = newScripts;
+        this.changedScripts = changedScripts;
+        this.deletedScripts = deletedScripts;
+    }
+
+    /**
+     * Drift of DB where SCMDB wasn't run yet
+     */
+    public static ScriptsDrift notInitialized() {
+        return new ScriptsDrift(false, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    public static ScriptsDrift upToDate() {
+        return new ScriptsDrift(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return scripts which aren't executed in DB yet
+     */
+    public List<String> getNewScripts() {
+        return newScripts;
+    }
+
+    /**
+     * @return executed scripts which were changed after execution, null if changes weren't checked
+     */
+    public List<String> getChangedScripts() {
+        return changedScripts;
+    }
+
+    /**
+     * @return scripts executed in DB which aren't in the directory anymore
+     */
+    public List<String> getDeletedScripts() {
+        return deletedScripts;
+    }
+}
@@ -0,0 +1,99 @@
+package com.onevizion.scmdb.vo;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Two level hash tree over (name, file_hash) of scripts.
+ * Scripts are grouped into nodes by ranges of order numbers, dev scripts without order number get their own node.
+ * Equal root hashes mean equal sets of scripts, different node hashes show which ranges of scripts were changed.
+ */
+public class ScriptsMerkleTree {
+    public static final String ROOT_NODE = "ROOT";
+
+    private static final String DEV_SCRIPTS_NODE = "DEV";
+    private static final int SCRIPTS_RANGE_SIZE = 1000;
+
+    private final Map<String, String> nodeHashes;
+    private final String rootHash;
+
+    private ScriptsMerkleTree(Map<String, String> nodeHashes, String rootHash) {
+        this.nodeHashes = nodeHashes;
+        this.rootHash = rootHash;
+    }
+
+    public static ScriptsMerkleTree create(Collection<SqlScript> scripts) {
+        Map<String, List<SqlScript>> scriptsByNode = new TreeMap<>(Comparator.comparing(ScriptsMerkleTree::getNodeOrder));
+        for (SqlScript script : scripts) {
+            scriptsByNode.computeIfAbsent(getNodeName(script), k -> new ArrayList<>()).add(script);
+        }
+
+        Map<String, String> nodeHashes = new LinkedHashMap<>();
+        MessageDigest rootDigest = DigestUtils.getSha1Digest();
+        for (Map.Entry<String, List<SqlScript>> node : scriptsByNode.entrySet()) {
+            List<SqlScript> nodeScripts = node.getValue();
+            nodeScripts.sort(Comparator.comparing(SqlScript::getName));
+
+            MessageDigest nodeDigest = DigestUtils.getSha1Digest();
+            for (SqlScript script : nodeScripts) {
+                update(nodeDigest, script.getName() + "\t" + script.getFileHash() + "\n");
+            }
+            String nodeHash = Hex.encodeHexString(nodeDigest.digest());
+            nodeHashes.put(node.getKey(), nodeHash);
+            update(rootDigest, node.getKey() + "\t" + nodeHash + "\n");
+        }
+
+        return new ScriptsMerkleTree(nodeHashes, Hex.encodeHexString(rootDigest.digest()));
+    }
+
+    /**
+     * Returns names of nodes which are missing or have another hash in the other tree.
+     *
+     * @param otherNodeHashes node hashes of the other tree
+     * @return names of changed nodes, e.g. ["8000-8999", "DEV"]
+     */
+    public List<String> findChangedNodes(Map<String, String> otherNodeHashes) {
+        Set<String> nodes = new TreeSet<>(Comparator.comparing(ScriptsMerkleTree::getNodeOrder));
+        nodes.addAll(nodeHashes.keySet());
+        nodes.addAll(otherNodeHashes.keySet());
+
+        List<String> changedNodes = new ArrayList<>();
+        for (String node : nodes) {
+            if (!Objects.equals(nodeHashes.get(node), otherNodeHashes.get(node))) {
+                changedNodes.add(node);
+            }
+        }
+        return changedNodes;
+    }
+
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public Map<String, String> getNodeHashes() {
+        return nodeHashes;
+    }
+
+    private static String getNodeName(SqlScript script) {
+        if (script.getOrderNumber() == null) {
+            return DEV_SCRIPTS_NODE;
+        }
+        int rangeStart = script.getOrderNumber() / SCRIPTS_RANGE_SIZE * SCRIPTS_RANGE_SIZE;
+        return rangeStart + "-" + (rangeStart + SCRIPTS_RANGE_SIZE - 1);
+    }
+
+    private static long getNodeOrder(String nodeName) {
+        if (DEV_SCRIPTS_NODE.equals(nodeName)) {
+            return Long.MAX_VALUE;
+        }
+        return Long.parseLong(nodeName.substring(0, nodeName.indexOf('-')));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
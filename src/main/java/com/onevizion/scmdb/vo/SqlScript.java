@@ -1,12 +1,15 @@
 package com.onevizion.scmdb.vo;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Objects;
@@ -26,8 +29,12 @@ public class SqlScript implements Comparable<SqlScript> {
     private File file;
     private SchemaType schemaType = SchemaType.OWNER;
     private Integer orderNumber;
+    private Date startTs;
+    private Date endTs;
+    private Long durationMs;
 
     private static final String ROLLBACK_SUFFIX = "_rollback";
+    private static final int HASH_BUFFER_SIZE = 8192;
 
     private static final Comparator<SqlScript> ORDER_NUMBER_AND_NAME_COMPARATOR =
             Comparator.comparing(SqlScript::getOrderNumber, nullsFirst(naturalOrder()))
@@ -37,7 +44,7 @@ public class SqlScript implements Comparable<SqlScript> {
         return create(scriptFile, true);
     }
 
-    public static SqlScript create(File scriptFile, boolean readFileContent) {
+    public static SqlScript create(File scriptFile, boolean calcFileHash) {
         SqlScript script = new SqlScript();
 
         script.setFile(scriptFile);
@@ -52,19 +59,104 @@ public class SqlScript implements Comparable<SqlScript> {
         script.setStatus(ScriptStatus.EXECUTED);
         script.setSchemaType(SchemaType.getByScriptFileName(scriptFile.getName()));
 
-        if (readFileContent) {
-            script.loadContentFromFile();
+        if (calcFileHash) {
+            script.loadHashFromFile();
         }
 
         return script;
     }
 
-    public void loadContentFromFile() {
-        String fileContent;
+    /**
+     * Creates a copy which may be changed independently, e.g. by updates of different DBs
+     */
+    public SqlScript copy() {
+        SqlScript script = new SqlScript();
+        script.setId(id);
+        script.setName(name);
+        script.setFileHash(fileHash);
+        script.setText(text);
+        script.setTs(ts);
+        script.setOutput(output);
+        script.setType(type);
+        script.setStatus(status);
+        script.setFile(file);
+        script.setSchemaType(schemaType);
+        script.setOrderNumber(orderNumber);
+        script.setStartTs(startTs);
+        script.setEndTs(endTs);
+        script.setDurationMs(durationMs);
+        return script;
+    }
+
+    /**
+     * Calculates SHA-1 of the file content with CRLF line endings replaced by LF.
+     * File is decoded and hashed through a fixed size buffer, so the hash is the same as for the whole
+     * file text but the text itself isn't kept in memory.
+     */
+    public void loadHashFromFile() {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+             Writer digestWriter = new OutputStreamWriter(
+                     new DigestOutputStream(OutputStream.nullOutputStream(), digest), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[HASH_BUFFER_SIZE];
+            boolean pendingCr = false;
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                if (pendingCr && buffer[0] != '\n') {
+                    digestWriter.write('\r');
+                }
+                pendingCr = false;
+
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\r') {
+                        continue;
+                    }
+                    if (i + 1 == read) {
+                        digestWriter.write(buffer, start, i - start);
+                        start = read;
+                        pendingCr = true;
+                    } else if (buffer[i + 1] == '\n') {
+                        digestWriter.write(buffer, start, i - start);
+                        start = i + 1;
+                    }
+                }
+                digestWriter.write(buffer, start, read - start);
+            }
+            if (pendingCr) {
+                digestWriter.write('\r');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't read file content [" + name + "]", e);
+        }
+        fileHash = Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Opens script text without loading it into memory when it isn't loaded yet.
+     *
+     * @return text reader or null if script has no text
+     */
+    public Reader openTextReader() throws IOException {
+        if (text == null && file != null && file.isFile()) {
+            return new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        }
+        return text == null ? null : new StringReader(text);
+    }
+
+    /**
+     * @return text length in characters if text is loaded, otherwise file size in bytes
+     */
+    public long getTextSize() {
+        if (text == null && file != null) {
+            return file.length();
+        }
+        return text == null ? 0 : text.length();
+    }
+
+    private void loadTextFromFile() {
         try {
-            fileContent = FileUtils.readFileToString(file, "UTF-8");
-            text = fileContent;
-            fileHash = DigestUtils.sha1Hex(fileContent.replaceAll("\\r\\n", "\n"));
+            text = FileUtils.readFileToString(file, "UTF-8");
         } catch (IOException e) {
             throw new RuntimeException("Can't read file content [" + name + "]", e);
         }
@@ -96,6 +188,9 @@ public class SqlScript implements Comparable<SqlScript> {
     }
 
     public String getText() {
+        if (text == null && file != null && file.isFile()) {
+            loadTextFromFile();
+        }
         return text;
     }
 
@@ -176,6 +271,33 @@ public class SqlScript implements Comparable<SqlScript> {
         this.orderNumber = orderNumber;
     }
 
+    public Date getStartTs() {
+        return startTs;
+    }
+
+    public void setStartTs(Date startTs) {
+        this.startTs = startTs;
+    }
+
+    public Date getEndTs() {
+        return endTs;
+    }
+
+    public void setEndTs(Date endTs) {
+        this.endTs = endTs;
+    }
+
+    /**
+     * @return runtime of the last execution, null if script wasn't executed by this run
+     */
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+
     @Override
     public int hashCode() {
         return name.hashCode();
@@ -7,12 +7,23 @@ create table db_script(
     output clob null,
     type number not null,
     status number not null,
+    start_ts date null,
+    end_ts date null,
+    duration_ms number null,
     constraint pk_db_script primary key (db_script_id)
 );
 
 create unique index u1_db_script on db_script (name, file_hash);
 create sequence seq_db_script_id;
 
+create table db_script_tree(
+    node varchar2(30) not null,
+    hash varchar2(40) not null,
+    script_cnt number null,
+    max_script_id number null,
+    constraint pk_db_script_tree primary key (node)
+);
+
 create or replace trigger tib_db_script before insert on db_script
     for each row
 begin
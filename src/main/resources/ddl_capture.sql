@@ -0,0 +1,46 @@
+declare
+    e_name_used exception;
+    pragma exception_init(e_name_used, -955);
+begin
+    -- log is kept when only the trigger is reinstalled
+    begin
+        execute immediate 'create table db_ddl_event(
+            db_ddl_event_id number not null,
+            object_name varchar2(128) not null,
+            object_type varchar2(30) not null,
+            operation varchar2(30) not null,
+            ts date default sysdate not null,
+            constraint pk_db_ddl_event primary key (db_ddl_event_id))';
+    exception
+        when e_name_used then null;
+    end;
+    begin
+        execute immediate 'create sequence seq_db_ddl_event_id';
+    exception
+        when e_name_used then null;
+    end;
+end;
+/
+
+create or replace trigger trg_scmdb_ddl_capture after ddl on schema
+declare
+    pragma autonomous_transaction;
+begin
+    if ora_dict_obj_type in ('TABLE', 'VIEW', 'PACKAGE', 'PACKAGE BODY', 'TYPE', 'TYPE BODY', 'INDEX', 'TRIGGER', 'SEQUENCE')
+        and ora_dict_obj_name not like 'DB\_SCRIPT%' escape '\'
+        and ora_dict_obj_name not like 'DB\_DDL\_EVENT%' escape '\'
+        and ora_dict_obj_name not like 'BIN$%'
+        and ora_dict_obj_name not like 'SYS\_%' escape '\' then
+        -- failed capture must never fail the DDL, the change is just missed by --gen-ddl
+        begin
+            insert into db_ddl_event (db_ddl_event_id, object_name, object_type, operation)
+            values (seq_db_ddl_event_id.nextval, ora_dict_obj_name, ora_dict_obj_type, ora_sysevent);
+            commit;
+        exception
+            when others then
+                -- autonomous transaction must be ended before return
+                rollback;
+        end;
+    end if;
+end;
+/